@@ -0,0 +1,127 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive concurrency limit, using additive increase, multiplicative
+ * decrease (AIMD) against a latency baseline.
+ * <p>
+ * Callers acquire a slot before each probe and release it with the
+ * probe latency and outcome. Outcomes are judged a window at a time, a
+ * window being about one limit's worth of probes, so roughly one round
+ * trip. If the window's mean latency stays within TOLERANCE of the
+ * baseline, and fewer than MAX_ERROR_RATE of its probes failed, the limit
+ * grows by one. Otherwise it is multiplied by BACKOFF.
+ * <p>
+ * The baseline drops at once to any lower window mean. After each window
+ * it moves a DRIFT fraction towards that window's mean, so it follows the
+ * network if it gets slower for good, but only slowly follows the queueing
+ * delay the limiter itself adds.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class AdaptiveLimiter {
+	/** Mean latency above baseline times this counts as congestion. */
+	public static final double TOLERANCE = 2.0;
+	/** Fraction of failed probes in a window that counts as congestion. */
+	public static final double MAX_ERROR_RATE = 0.1;
+	/** Limit is multiplied by this when congestion is seen. */
+	public static final double BACKOFF = 0.75;
+	/** Fewest probes judged as a window. */
+	public static final int MIN_WINDOW = 10;
+	/** Fraction of the way the baseline moves up after each window. */
+	public static final double DRIFT = 0.05;
+
+	public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = initialLimit;
+		this.peakLimit = initialLimit;
+	}
+
+	/** Wait until a probe may start, then take its slot. */
+	public synchronized void acquire() throws InterruptedException {
+		while (inFlight >= limit) {
+			wait();
+		}
+		inFlight++;
+	}
+
+	/**
+	 * Wait up to timeout for a probe to be allowed to start. Take its slot
+	 * and return true, or return false if none came free in time. As with
+	 * Semaphore.tryAcquire, a free slot is taken even if timeout is not
+	 * positive.
+	 */
+	public synchronized boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (inFlight >= limit) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		inFlight++;
+		return true;
+	}
+
+	/** Give back a slot, and adjust the limit from the probe outcome. */
+	public synchronized void release(long latencyNanos, boolean success) {
+		inFlight--;
+		windowNanos += latencyNanos;
+		windowCount++;
+		if (!success) {
+			windowFailures++;
+		}
+		if (windowCount >= Math.max(MIN_WINDOW, limit)) {
+			long mean = windowNanos / windowCount;
+			boolean congested = windowFailures > MAX_ERROR_RATE * windowCount
+				|| (baseline > 0 && mean > TOLERANCE * baseline);
+			if (congested) {
+				limit = Math.max(minLimit, (int) (limit * BACKOFF));
+			} else {
+				limit = Math.min(maxLimit, limit + 1);
+			}
+			baseline = baseline == 0 || mean < baseline ? mean
+				: baseline + (long) (DRIFT * (mean - baseline));
+			peakLimit = Math.max(peakLimit, limit);
+			windowNanos = 0;
+			windowCount = 0;
+			windowFailures = 0;
+		}
+		notifyAll();
+	}
+
+	/** The number of probes currently allowed in flight. */
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	/** The highest limit reached so far. */
+	public synchronized int getPeakLimit() {
+		return peakLimit;
+	}
+
+	/** The number of probes currently in flight. */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "limit=" + limit + " peak=" + peakLimit + " baseline="
+			+ (baseline == 0 ? "none" : String.format("%.3f mS", baseline / 1e6));
+	}
+
+	// PRIVATE
+	private final int minLimit;
+	private final int maxLimit;
+	private int limit;
+	private int peakLimit;
+	private int inFlight;
+	private long baseline;
+	private long windowNanos;
+	private int windowCount;
+	private int windowFailures;
+}
@@ -0,0 +1,50 @@
+package com.example;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring. Maps keys to nodes so that removing a node only
+ * moves the keys that were on it.
+ * <p>
+ * Each node is placed on the ring at replicas points, so keys spread
+ * evenly even over a few nodes. A key belongs to the first node point at
+ * or after its own hash, wrapping round.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ConsistentHash {
+
+	/** A ring of the given nodes, each at replicas points. */
+	public ConsistentHash(Collection<Integer> nodes, int replicas) {
+		for (int node : nodes) {
+			for (int i = 0; i < replicas; i++) {
+				ring.put(mix(node * 0x9E3779B9 + i), node);
+			}
+		}
+	}
+
+	/** The node for key, or -1 if the ring is empty. */
+	public int nodeFor(String key) {
+		if (ring.isEmpty()) {
+			return -1;
+		}
+		Map.Entry<Integer, Integer> entry = ring.ceilingEntry(mix(key.hashCode()));
+		return (entry != null ? entry : ring.firstEntry()).getValue();
+	}
+
+	// PRIVATE
+	private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+
+	// Spread the bits of a hash code, so similar keys land far apart
+	// (the MurmurHash3 finalizer).
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -0,0 +1,256 @@
+package com.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.CRC32;
+
+/**
+ * Assertions on a response body, checked as the body streams past, without
+ * keeping it: a keyword or a regular expression it must contain, a most
+ * bytes it may have, and the CRC-32 it must have. Given both a keyword and
+ * a pattern, the body must contain both.
+ * <p>
+ * A Scan is given each chunk read, and answers with a Verdict as soon as
+ * one is certain, so the caller can stop reading and drop the connection.
+ * A body too large fails the moment it passes maxBytes, or at once when
+ * its declared length does. A found keyword or pattern passes at once,
+ * unless a checksum is wanted, or a size limit with no declared length;
+ * those need the whole body.
+ * <p>
+ * A keyword is matched on its UTF-8 bytes. A pattern is matched on bytes
+ * read as ISO-8859-1, within a window of the last MAX_MATCH to
+ * 2 * MAX_MATCH bytes, so it finds matches up to MAX_MATCH bytes long.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ContentCheck {
+	/** Longest pattern match sure to be found. */
+	public static final int MAX_MATCH = 4096;
+	/** No size limit, or no checksum. */
+	public static final long NONE = -1;
+	/** System properties read by fromProperties. */
+	public static final String[] PROPERTIES = {
+		"expectText", "expectRegex", "maxBodyBytes", "expectCrc32" };
+
+	/** Outcome of a check. */
+	public enum Verdict {
+		/** Every assertion held. */
+		PASSED,
+		/** The keyword or pattern was not found. */
+		MISSING,
+		/** The body was longer than maxBytes. */
+		TOO_LARGE,
+		/** The body had another CRC-32. */
+		CHECKSUM
+	}
+
+	/**
+	 * @param keyword text the body must contain, or null or empty
+	 * @param pattern pattern the body must contain a match of, or null
+	 * @param maxBytes most bytes the body may have, or NONE
+	 * @param crc32 CRC-32 the whole body must have, or NONE
+	 */
+	public ContentCheck(String keyword, Pattern pattern, long maxBytes, long crc32) {
+		this.keyword = keyword == null || keyword.isEmpty() ? null : keyword.getBytes(StandardCharsets.UTF_8);
+		this.pattern = pattern;
+		this.maxBytes = maxBytes;
+		this.crc32 = crc32;
+		this.failure = this.keyword == null ? null : failureTable(this.keyword);
+	}
+
+	/**
+	 * The check set by -DexpectText=keyword or -DexpectRegex=pattern,
+	 * -DmaxBodyBytes=N and -DexpectCrc32=hex, or null if none are set.
+	 * Throws IllegalArgumentException, naming the property, if one is bad.
+	 */
+	public static ContentCheck fromProperties(Properties properties) {
+		String keyword = properties.getProperty("expectText");
+		String regex = properties.getProperty("expectRegex");
+		String maxBytes = properties.getProperty("maxBodyBytes");
+		String crc32 = properties.getProperty("expectCrc32");
+		if (keyword == null && regex == null && maxBytes == null && crc32 == null) {
+			return null;
+		}
+		Pattern pattern = null;
+		if (regex != null) {
+			try {
+				pattern = Pattern.compile(regex);
+			} catch (PatternSyntaxException ex) {
+				throw new IllegalArgumentException("expectRegex is not a pattern: " + ex.getDescription());
+			}
+		}
+		return new ContentCheck(keyword, pattern,
+			maxBytes == null ? NONE : parse("maxBodyBytes", maxBytes, 10, Long.MAX_VALUE),
+			crc32 == null ? NONE : parse("expectCrc32", crc32, 16, 0xffffffffL));
+	}
+
+	/** Start checking one body. */
+	public Scan newScan() {
+		return new Scan();
+	}
+
+	@Override
+	public String toString() {
+		return "keyword=" + (keyword == null ? "none" : new String(keyword, StandardCharsets.UTF_8))
+			+ " pattern=" + (pattern == null ? "none" : pattern.pattern())
+			+ " maxBytes=" + (maxBytes == NONE ? "none" : String.valueOf(maxBytes))
+			+ " crc32=" + (crc32 == NONE ? "none" : Long.toHexString(crc32));
+	}
+
+	/** The check of one body, fed a chunk at a time. */
+	public final class Scan {
+		/**
+		 * Note the declared length of the body, or -1 if not given. Return
+		 * the verdict if that decides it, otherwise null.
+		 */
+		public Verdict begin(long contentLength) {
+			if (maxBytes != NONE && contentLength > maxBytes) {
+				return Verdict.TOO_LARGE;
+			}
+			sizeKnown = maxBytes == NONE || contentLength >= 0;
+			return decided();
+		}
+
+		/** Check the next chunk. Return the verdict if it is now certain, otherwise null. */
+		public Verdict update(byte[] bytes, int offset, int length) {
+			count += length;
+			if (maxBytes != NONE && count > maxBytes) {
+				return Verdict.TOO_LARGE;
+			}
+			if (checksum != null) {
+				checksum.update(bytes, offset, length);
+			}
+			if (!keywordFound) {
+				keywordFound = findKeyword(bytes, offset, length);
+			}
+			if (!patternFound) {
+				patternFound = findPattern(bytes, offset, length);
+			}
+			return decided();
+		}
+
+		/** The verdict, at the end of the body. */
+		public Verdict finish() {
+			if (!keywordFound || !patternFound) {
+				return Verdict.MISSING;
+			}
+			if (checksum != null && checksum.getValue() != crc32) {
+				return Verdict.CHECKSUM;
+			}
+			return Verdict.PASSED;
+		}
+
+		// PRIVATE
+		private final CRC32 checksum = crc32 == NONE ? null : new CRC32();
+		private final Window window = pattern == null ? null : new Window();
+		private final Matcher matcher = pattern == null ? null : pattern.matcher(window);
+		private boolean keywordFound = keyword == null;
+		private boolean patternFound = pattern == null;
+		private boolean sizeKnown;
+		private int matched;
+		private long count;
+
+		// PASSED once nothing more read can change it, otherwise null.
+		private Verdict decided() {
+			return keywordFound && patternFound && sizeKnown && checksum == null ? Verdict.PASSED : null;
+		}
+
+		// Knuth-Morris-Pratt, carrying the match so far across chunks.
+		private boolean findKeyword(byte[] bytes, int offset, int length) {
+			for (int i = offset; i < offset + length; i++) {
+				while (matched > 0 && bytes[i] != keyword[matched]) {
+					matched = failure[matched - 1];
+				}
+				if (bytes[i] == keyword[matched] && ++matched == keyword.length) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		// Append to the window a piece at a time, searching it after each,
+		// and keep its last MAX_MATCH bytes when full.
+		private boolean findPattern(byte[] bytes, int offset, int length) {
+			while (length > 0) {
+				if (window.length == window.bytes.length) {
+					System.arraycopy(window.bytes, MAX_MATCH, window.bytes, 0, MAX_MATCH);
+					window.length = MAX_MATCH;
+				}
+				int piece = Math.min(length, window.bytes.length - window.length);
+				System.arraycopy(bytes, offset, window.bytes, window.length, piece);
+				window.length += piece;
+				offset += piece;
+				length -= piece;
+				if (matcher.reset().find()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	// PRIVATE
+	private final byte[] keyword;
+	private final Pattern pattern;
+	private final long maxBytes;
+	private final long crc32;
+	// Keyword prefix lengths for Knuth-Morris-Pratt.
+	private final int[] failure;
+
+	// The bytes of the pattern window, read as ISO-8859-1 without copying.
+	private static final class Window implements CharSequence {
+		final byte[] bytes = new byte[2 * MAX_MATCH];
+		int length;
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (bytes[index] & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	// A property's value in radix, from 0 to max.
+	private static long parse(String name, String value, int radix, long max) {
+		try {
+			long parsed = Long.parseLong(value.trim(), radix);
+			if (parsed >= 0 && parsed <= max) {
+				return parsed;
+			}
+		} catch (NumberFormatException ex) {
+			// reported below
+		}
+		throw new IllegalArgumentException(name + " must be " + (radix == 16 ? "hex" : "a number")
+			+ " from 0 to " + Long.toString(max, radix) + ": " + value);
+	}
+
+	private static int[] failureTable(byte[] keyword) {
+		int[] failure = new int[keyword.length];
+		for (int i = 1, k = 0; i < keyword.length; i++) {
+			while (k > 0 && keyword[i] != keyword[k]) {
+				k = failure[k - 1];
+			}
+			if (keyword[i] == keyword[k]) {
+				k++;
+			}
+			failure[i] = k;
+		}
+		return failure;
+	}
+}
@@ -0,0 +1,150 @@
+package com.example;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Host name cache with time-to-live, shared by all probes of a checker.
+ * <p>
+ * Each host is looked up once per TTL. Concurrent requests for a host
+ * being looked up wait for that one lookup. Failed lookups are cached for
+ * the negative TTL, so a dead host is not re-queried by every probe.
+ * <p>
+ * InetAddress does not expose record TTLs, so the TTLs default to the
+ * JVM's own networkaddress.cache.ttl and networkaddress.cache.negative.ttl
+ * security properties. The JVM cache then agrees with this one, and the
+ * connection's own lookup after a resolve here is a JVM cache hit.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class DnsCache {
+	/** TTL used when networkaddress.cache.ttl is not set, in seconds. */
+	public static final int DEFAULT_TTL_SECS = 30;
+	/** TTL used when networkaddress.cache.negative.ttl is not set, in seconds. */
+	public static final int DEFAULT_NEGATIVE_TTL_SECS = 10;
+
+	/** Cache with the JVM's TTLs. */
+	public DnsCache() {
+		this(securityTtl("networkaddress.cache.ttl", DEFAULT_TTL_SECS),
+			securityTtl("networkaddress.cache.negative.ttl", DEFAULT_NEGATIVE_TTL_SECS));
+	}
+
+	/** Cache with the given TTLs in seconds. A negative TTL caches forever. */
+	public DnsCache(int ttlSecs, int negativeTtlSecs) {
+		this.ttlNanos = toNanos(ttlSecs);
+		this.negativeTtlNanos = toNanos(negativeTtlSecs);
+	}
+
+	/** Resolve a host, from the cache when fresh. */
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		while (true) {
+			Entry entry = cache.get(host);
+			if (entry != null && System.nanoTime() - entry.expires < 0) {
+				hits.increment();
+				return entry.get(host);
+			}
+			Entry fresh = new Entry();
+			boolean won = entry == null ? cache.putIfAbsent(host, fresh) == null
+				: cache.replace(host, entry, fresh);
+			if (won) {
+				misses.increment();
+				fresh.lookup(host);
+				return fresh.get(host);
+			}
+			// another thread started a lookup first; use it
+		}
+	}
+
+	/**
+	 * Resolve the distinct hosts of the given URLs in parallel on executor.
+	 * The returned future completes when all lookups have finished.
+	 */
+	public CompletableFuture<Void> prefetch(Iterable<String> urls, Executor executor) {
+		Set<String> hosts = new LinkedHashSet<>();
+		for (String url : urls) {
+			hosts.add(ParallelSite.hostOf(url));
+		}
+		CompletableFuture<?>[] lookups = new CompletableFuture<?>[hosts.size()];
+		int i = 0;
+		for (String host : hosts) {
+			lookups[i++] = CompletableFuture.runAsync(() -> {
+				try {
+					resolve(host);
+				} catch (UnknownHostException ex) {
+					// cached as a failure; the probe reports it
+				}
+			}, executor);
+		}
+		return CompletableFuture.allOf(lookups);
+	}
+
+	@Override
+	public String toString() {
+		return "hosts=" + cache.size() + " lookups=" + misses.sum() + " hits=" + hits.sum()
+			+ " lookup time=" + TimeUnit.NANOSECONDS.toMillis(lookupNanos.sum()) + " mS";
+	}
+
+	// PRIVATE
+	private final long ttlNanos;
+	private final long negativeTtlNanos;
+	private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder lookupNanos = new LongAdder();
+
+	private static int securityTtl(String name, int fallback) {
+		String value = Security.getProperty(name);
+		try {
+			return value == null ? fallback : Integer.parseInt(value.trim());
+		} catch (NumberFormatException ex) {
+			return fallback;
+		}
+	}
+
+	private static long toNanos(int secs) {
+		// About 292 years stands in for forever, and cannot overflow.
+		return secs < 0 ? Long.MAX_VALUE / 2 : TimeUnit.SECONDS.toNanos(secs);
+	}
+
+	/** One lookup, in flight or done. */
+	private final class Entry {
+		// Until the lookup finishes the entry never expires.
+		volatile long expires = System.nanoTime() + Long.MAX_VALUE / 2;
+		final CompletableFuture<InetAddress[]> addresses = new CompletableFuture<>();
+
+		void lookup(String host) {
+			long start = System.nanoTime();
+			try {
+				InetAddress[] found = InetAddress.getAllByName(host);
+				expires = System.nanoTime() + ttlNanos;
+				addresses.complete(found);
+			} catch (UnknownHostException | RuntimeException ex) {
+				expires = System.nanoTime() + negativeTtlNanos;
+				addresses.completeExceptionally(ex);
+			} finally {
+				lookupNanos.add(System.nanoTime() - start);
+			}
+		}
+
+		InetAddress[] get(String host) throws UnknownHostException {
+			try {
+				return addresses.join();
+			} catch (CompletionException ex) {
+				if (ex.getCause() instanceof UnknownHostException) {
+					throw (UnknownHostException) ex.getCause();
+				}
+				throw new UnknownHostException(host + ": " + ex.getCause());
+			}
+		}
+	}
+}
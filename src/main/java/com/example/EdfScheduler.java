@@ -0,0 +1,152 @@
+package com.example;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Earliest-deadline-first probe scheduling. Each probe has a deadline,
+ * and a free thread always takes the waiting probe whose deadline is
+ * nearest, instead of the one submitted first. A priority is just a
+ * shorter deadline.
+ * <p>
+ * Starvation protection: a probe is ordered by the earlier of its deadline
+ * and its submission time plus maxWaitMillis, so no probe waits behind
+ * urgent ones for longer than that, however many keep arriving. A probe
+ * due within maxWaitMillis is ordered by its deadline alone, so the cap
+ * only matters for deadlines longer than it.
+ * <p>
+ * A probe answered after its deadline is a miss. Misses are counted, and
+ * how late each one was is kept in a histogram, here and in any
+ * ProbeMetrics given to setMetrics.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class EdfScheduler {
+
+	/**
+	 * @param threads probes run at once
+	 * @param maxWaitMillis longest a probe waits behind nearer deadlines
+	 * @param threadFactory makes the threads that run probes
+	 */
+	public EdfScheduler(int threads, long maxWaitMillis, ThreadFactory threadFactory) {
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+			new PriorityBlockingQueue<Runnable>(), threadFactory);
+		// Started threads take every probe from the queue, in deadline order.
+		executor.prestartAllCoreThreads();
+	}
+
+	/** Queue probe, due deadlineMillis from now. */
+	public void submit(Callable<PingResult> probe, long deadlineMillis) {
+		long now = System.nanoTime();
+		long deadline = now + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+		executor.execute(new DeadlineTask(probe, deadline, Math.min(deadline, now + maxWaitNanos)));
+	}
+
+	/**
+	 * The next answered probe, waiting up to timeoutMillis, or null if none
+	 * answered in time.
+	 */
+	public PingResult poll(long timeoutMillis) throws InterruptedException, ExecutionException {
+		DeadlineTask task = completed.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		return task == null ? null : task.get();
+	}
+
+	/** Stop at once, cancelling probes not yet answered. */
+	public void shutdownNow() {
+		executor.shutdownNow();
+	}
+
+	/** Also count met and missed deadlines in these metrics. */
+	public void setMetrics(ProbeMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/** The pool that runs the probes, to watch its queue. */
+	ThreadPoolExecutor getExecutor() {
+		return executor;
+	}
+
+	/** Probes answered by their deadline. */
+	public long getMet() {
+		return met.sum();
+	}
+
+	/** Probes answered after their deadline. */
+	public long getMissed() {
+		return missed.sum();
+	}
+
+	/** How late each missed probe was. */
+	public LatencyHistogram getLateness() {
+		return lateness;
+	}
+
+	@Override
+	public String toString() {
+		return "met=" + getMet() + " missed=" + getMissed()
+			+ (getMissed() > 0 ? " lateness: " + lateness : "");
+	}
+
+	// PRIVATE
+	private final long maxWaitNanos;
+	private final ThreadPoolExecutor executor;
+	private final BlockingQueue<DeadlineTask> completed = new LinkedBlockingQueue<>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final LongAdder met = new LongAdder();
+	private final LongAdder missed = new LongAdder();
+	private final LatencyHistogram lateness = new LatencyHistogram();
+	private volatile ProbeMetrics metrics;
+
+	// A probe ordered by its effective deadline, then by submission.
+	private final class DeadlineTask extends FutureTask<PingResult> implements Comparable<DeadlineTask> {
+		DeadlineTask(Callable<PingResult> probe, long deadline, long order) {
+			super(probe);
+			this.deadline = deadline;
+			this.order = order;
+			this.seq = sequence.getAndIncrement();
+		}
+
+		@Override
+		public int compareTo(DeadlineTask other) {
+			int byOrder = Long.compare(order - other.order, 0); // nanoTime may wrap
+			return byOrder != 0 ? byOrder : Long.compare(seq, other.seq);
+		}
+
+		@Override
+		protected void done() {
+			if (!isCancelled()) {
+				long late = System.nanoTime() - deadline;
+				ProbeMetrics metrics = EdfScheduler.this.metrics;
+				if (late > 0) {
+					missed.increment();
+					lateness.record(late);
+					if (metrics != null) {
+						metrics.deadlineMissed(late);
+					}
+				} else {
+					met.increment();
+					if (metrics != null) {
+						metrics.deadlineMet();
+					}
+				}
+				completed.add(this);
+			}
+		}
+
+		private final long deadline;
+		private final long order;
+		private final long seq;
+	}
+}
@@ -0,0 +1,117 @@
+package com.example;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Hedged requests. If a probe has not answered by the time a given
+ * percentile of recent probes had answered, a second identical probe is
+ * sent, and whichever answers first is kept. The loser is cancelled, and
+ * its open connections are disconnected so it does not hold its thread
+ * until the read time-out.
+ * <p>
+ * The hedge delay comes from a window of the most recent latencies, each
+ * measured from when the first attempt was sent, so a hedged answer counts
+ * the wait before its hedge too. No hedging happens until the window holds
+ * MIN_SAMPLES.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class Hedger {
+	/** Recent latencies kept to compute the hedge delay. */
+	public static final int WINDOW = 128;
+	/** Samples needed before the first hedge is sent. */
+	public static final int MIN_SAMPLES = 8;
+
+	/**
+	 * @param executor runs the attempts; should have room for hedges
+	 * @param percentile hedge after this fraction of probes, e.g. 0.95
+	 */
+	public Hedger(ExecutorService executor, double percentile) {
+		this.executor = executor;
+		this.percentile = percentile;
+	}
+
+	/**
+	 * Run an attempt, hedging it with another if it is slow. Return the
+	 * first answer, timed from when the first attempt was sent. Each
+	 * attempt is made from the set it should keep its open connections in.
+	 */
+	public PingResult probe(Function<Set<HttpURLConnection>, Callable<PingResult>> attempt)
+			throws InterruptedException, ExecutionException {
+		CompletionService<PingResult> completionService =
+			new ExecutorCompletionService<>(executor);
+		Set<HttpURLConnection> primaryConnections = ConcurrentHashMap.newKeySet();
+		Set<HttpURLConnection> hedgeConnections = ConcurrentHashMap.newKeySet();
+		long sent = System.nanoTime();
+		Future<PingResult> primary = completionService.submit(attempt.apply(primaryConnections));
+		Future<PingResult> hedge = null;
+		Future<PingResult> first;
+		long delay = hedgeDelayMillis();
+		if (delay < 0) {
+			first = completionService.take();
+		} else {
+			first = completionService.poll(delay, TimeUnit.MILLISECONDS);
+			if (first == null) {
+				hedge = completionService.submit(attempt.apply(hedgeConnections));
+				hedges.incrementAndGet();
+				first = completionService.take();
+			}
+		}
+		if (hedge != null) {
+			(first == primary ? hedge : primary).cancel(true);
+			for (HttpURLConnection connection : first == primary ? hedgeConnections : primaryConnections) {
+				connection.disconnect();
+			}
+		}
+		PingResult result = first.get();
+		// Restate the winner's time from the first send, so the wait
+		// before a hedge shows in the reported latency too.
+		result.timingNanos = System.nanoTime() - sent;
+		result.timing = TimeUnit.NANOSECONDS.toMillis(result.timingNanos);
+		record(result.timing);
+		return result;
+	}
+
+	/** Milliseconds to wait before hedging, or -1 while warming up. */
+	public synchronized long hedgeDelayMillis() {
+		int count = (int) Math.min(samples, WINDOW);
+		if (count < MIN_SAMPLES) {
+			return -1;
+		}
+		long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile * count) - 1;
+		return sorted[Math.max(0, Math.min(index, count - 1))];
+	}
+
+	/** Number of hedge requests sent so far. */
+	public int getHedges() {
+		return hedges.get();
+	}
+
+	// PRIVATE
+	private final ExecutorService executor;
+	private final double percentile;
+	private final long[] latencies = new long[WINDOW];
+	private long samples;
+	private final AtomicInteger hedges = new AtomicInteger();
+
+	private synchronized void record(long latency) {
+		latencies[(int) (samples % WINDOW)] = latency;
+		samples++;
+	}
+}
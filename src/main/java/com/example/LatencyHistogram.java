@@ -0,0 +1,123 @@
+package com.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-bucketed latency histogram in nanoseconds, safe to update from many
+ * threads without locks.
+ * <p>
+ * Values are grouped by power of two, and each power of two is split into
+ * SUB_BUCKETS linear steps, so a reported value is within 1/SUB_BUCKETS
+ * (about 6%) of the true one. Values up to MAX_NANOS are tracked; larger
+ * ones count in the top bucket. Recording is one array increment, so it
+ * adds little to the timed path. Reported percentiles are the upper edge
+ * of their bucket, so they never understate a latency.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class LatencyHistogram {
+	/** Linear steps per power of two. */
+	public static final int SUB_BUCKETS = 16;
+	/** Largest value tracked exactly, about 18 minutes. */
+	public static final long MAX_NANOS = (1L << 40) - 1;
+
+	/** Record one latency. */
+	public void record(long nanos) {
+		long value = Math.max(0, Math.min(nanos, MAX_NANOS));
+		counts.incrementAndGet(indexOf(value));
+		count.increment();
+		total.add(value);
+		long seen;
+		while (nanos > (seen = max.get()) && !max.compareAndSet(seen, nanos)) {
+			// retry
+		}
+	}
+
+	/** Add every recording of another histogram to this one. */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long n = other.counts.get(i);
+			if (n != 0) {
+				counts.addAndGet(i, n);
+			}
+		}
+		count.add(other.count.sum());
+		total.add(other.total.sum());
+		long seen;
+		long otherMax = other.max.get();
+		while (otherMax > (seen = max.get()) && !max.compareAndSet(seen, otherMax)) {
+			// retry
+		}
+	}
+
+	/** Number of recorded values. */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/** Largest recorded value, exact. */
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/** Mean of the recorded values. */
+	public long getMeanNanos() {
+		long n = count.sum();
+		return n == 0 ? 0 : total.sum() / n;
+	}
+
+	/** Value at or below which the given fraction of values fall, e.g. 0.99. */
+	public long getPercentileNanos(double fraction) {
+		long n = count.sum();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueAt(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/** Summary of count, p50, p90, p99, p99.9 and max, in milliseconds. */
+	@Override
+	public String toString() {
+		return "n=" + getCount()
+			+ " p50=" + millis(getPercentileNanos(0.50))
+			+ " p90=" + millis(getPercentileNanos(0.90))
+			+ " p99=" + millis(getPercentileNanos(0.99))
+			+ " p99.9=" + millis(getPercentileNanos(0.999))
+			+ " max=" + millis(getMaxNanos()) + " mS";
+	}
+
+	// PRIVATE
+	private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+	private static final int BUCKETS = indexOf(MAX_NANOS) + 1;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	// Values below 2 * SUB_BUCKETS are their own index. Above that, each
+	// power of two takes SUB_BUCKETS indexes.
+	private static int indexOf(long value) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+		return (shift << SUB_BITS) + (int) (value >>> shift);
+	}
+
+	private static long highestValueAt(int index) {
+		int shift = Math.max(0, (index >>> SUB_BITS) - 1);
+		long sub = index - ((long) shift << SUB_BITS);
+		return ((sub + 1) << shift) - 1;
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+}
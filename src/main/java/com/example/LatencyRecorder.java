@@ -0,0 +1,128 @@
+package com.example;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Latency histograms for one run: one for the whole run, and one per URL.
+ * Results with phase times also add to one histogram per phase per host.
+ * <p>
+ * Only successful results are timed, since a failure's timing is zero or
+ * a time-out and would skew the percentiles; failures are just counted.
+ * <p>
+ * Per-URL and per-host histograms are kept for the first MAX_URLS distinct
+ * URLs or hosts only, so a run over a huge URL file has bounded memory.
+ * Every success still counts in the run histogram.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class LatencyRecorder {
+	/** Most URLs given their own histogram. */
+	public static final int MAX_URLS = 10000;
+	/** Names of the phases, in the order of getPhasesPerHost arrays. */
+	public static final String[] PHASES = { "dns", "connect", "tls", "first byte", "body" };
+
+	/** Record the request latency of one result, or count it if it failed. */
+	public void record(PingResult result) {
+		if (!result.success) {
+			failures.increment();
+			return;
+		}
+		run.record(result.timingNanos);
+		LatencyHistogram histogram = perUrl.get(result.url);
+		if (histogram == null && perUrl.size() < MAX_URLS) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = perUrl.putIfAbsent(result.url, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		if (histogram != null) {
+			histogram.record(result.timingNanos);
+		}
+		if (result.phased) {
+			recordPhases(result);
+		}
+	}
+
+	/** Histogram of every successful result in the run. */
+	public LatencyHistogram getRun() {
+		return run;
+	}
+
+	/** Number of failed results. */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/** Number of results, successful or not. */
+	public long getProbes() {
+		return run.getCount() + getFailures();
+	}
+
+	/** Wall time of the run, in mS, once it has ended. */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/** Set the wall time of the run, in mS. */
+	public void setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+	}
+
+	/** What the run cost, once it has ended, or null. */
+	public RunCost getCost() {
+		return cost;
+	}
+
+	/** Set what the run cost. */
+	public void setCost(RunCost cost) {
+		this.cost = cost;
+	}
+
+	/** Histograms by URL, sorted by URL. */
+	public Map<String, LatencyHistogram> getPerUrl() {
+		return new TreeMap<>(perUrl);
+	}
+
+	/** Histograms of each phase, in PHASES order, by host, sorted by host. */
+	public Map<String, LatencyHistogram[]> getPhasesPerHost() {
+		return new TreeMap<>(phasesPerHost);
+	}
+
+	// PRIVATE
+	private final LatencyHistogram run = new LatencyHistogram();
+	private final LongAdder failures = new LongAdder();
+	private volatile long durationMillis;
+	private volatile RunCost cost;
+	private final ConcurrentMap<String, LatencyHistogram> perUrl = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LatencyHistogram[]> phasesPerHost = new ConcurrentHashMap<>();
+
+	private void recordPhases(PingResult result) {
+		String host = ParallelSite.hostOf(result.url);
+		LatencyHistogram[] phases = phasesPerHost.get(host);
+		if (phases == null) {
+			if (phasesPerHost.size() >= MAX_URLS) {
+				return;
+			}
+			LatencyHistogram[] created = new LatencyHistogram[PHASES.length];
+			for (int i = 0; i < created.length; i++) {
+				created[i] = new LatencyHistogram();
+			}
+			phases = phasesPerHost.putIfAbsent(host, created);
+			if (phases == null) {
+				phases = created;
+			}
+		}
+		phases[0].record(result.dnsNanos);
+		phases[1].record(result.connectNanos);
+		phases[2].record(result.tlsNanos);
+		phases[3].record(result.firstByteNanos);
+		phases[4].record(result.bodyNanos);
+	}
+}
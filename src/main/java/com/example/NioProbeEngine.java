@@ -0,0 +1,308 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Non-blocking probe engine. One selector thread drives every connection,
+ * so thousands of probes can be in flight without a thread per probe.
+ * <p>
+ * Each probe connects, sends a GET, and completes as soon as the HTTP
+ * status line is read. The body is never read; the socket is closed.
+ * Host names are resolved on a small resolver pool, since
+ * InetSocketAddress resolution blocks and would stall the selector.
+ * A shared DnsCache may be given, so each host is looked up once, and
+ * ProbeMetrics, which then count each probe open per host and watch the
+ * resolver pool.
+ * <p>
+ * A run may be given a deadline. Once it passes, no more probes start,
+ * and every probe still resolving or open is failed.
+ * <p>
+ * Only plain http:// URLs are probed. Other schemes report a failure.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class NioProbeEngine {
+	/** Threads used for blocking name resolution. */
+	public static final int RESOLVER_THREADS = 4;
+	/** A probe that has not completed in this time, resolving included, is failed. */
+	public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+	public NioProbeEngine(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Probe every URL, keeping up to maxInFlight probes open at once.
+	 * Blocks until all have completed, or until the deadline. The consumer
+	 * is called on the selector thread as each result becomes known.
+	 * Return the number of probes failed at the deadline; probes not yet
+	 * started then are skipped.
+	 */
+	public int probe(Iterable<String> urls, Consumer<PingResult> onResult)
+			throws IOException {
+		Iterator<String> pending = urls.iterator();
+		ExecutorService resolver = Executors.newFixedThreadPool(RESOLVER_THREADS);
+		if (metrics != null) {
+			metrics.watch(resolver);
+		}
+		try (Selector selector = Selector.open()) {
+			Queue<Probe> resolved = new ConcurrentLinkedQueue<>();
+			Set<Probe> resolving = new HashSet<>();
+			Set<Probe> open = new HashSet<>();
+			int inFlight = 0;
+			while (pending.hasNext() || inFlight > 0) {
+				if (System.currentTimeMillis() >= deadlineMillis) {
+					// Fail every probe still resolving or open, and start no more.
+					for (Probe cancelled : resolving) {
+						complete(cancelled, onResult);
+					}
+					for (Probe cancelled : open) {
+						complete(cancelled, onResult);
+					}
+					return inFlight;
+				}
+				// Start new probes up to the in-flight limit.
+				while (pending.hasNext() && inFlight < maxInFlight) {
+					Probe probe = new Probe(pending.next());
+					if (!probe.parse()) {
+						complete(probe, onResult);
+						continue;
+					}
+					inFlight++;
+					probe.started = true;
+					if (metrics != null) {
+						metrics.probeStarted(probe.host);
+					}
+					resolving.add(probe);
+					resolver.execute(() -> {
+						try {
+							if (dnsCache == null) {
+								probe.address = new InetSocketAddress(probe.host, probe.port);
+							} else {
+								InetAddress[] addresses = dnsCache.resolve(probe.host);
+								probe.address = new InetSocketAddress(addresses[0], probe.port);
+							}
+						} catch (IOException | RuntimeException ex) {
+							// leave unresolved, reported below
+						}
+						resolved.add(probe);
+						selector.wakeup();
+					});
+				}
+				// Register probes whose address is now known.
+				Probe probe;
+				while ((probe = resolved.poll()) != null) {
+					if (!resolving.remove(probe)) {
+						continue; // timed out while resolving, already reported
+					}
+					if (probe.address == null || probe.address.isUnresolved()) {
+						inFlight--;
+						complete(probe, onResult);
+						continue;
+					}
+					try {
+						probe.channel = SocketChannel.open();
+						probe.channel.configureBlocking(false);
+						if (probe.channel.connect(probe.address)) {
+							probe.channel.register(selector, SelectionKey.OP_WRITE, probe);
+						} else {
+							probe.channel.register(selector, SelectionKey.OP_CONNECT, probe);
+						}
+						open.add(probe);
+					} catch (IOException ex) {
+						inFlight--;
+						complete(probe, onResult);
+					}
+				}
+				long wait = Math.min(1000, deadlineMillis - System.currentTimeMillis());
+				selector.select(Math.max(1, wait));
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Probe ready = (Probe) key.attachment();
+					if (handle(key, ready)) {
+						inFlight--;
+						open.remove(ready);
+						complete(ready, onResult);
+					}
+				}
+				// Fail any probe that has been resolving or open too long.
+				long now = System.currentTimeMillis();
+				for (Iterator<Probe> it = resolving.iterator(); it.hasNext();) {
+					Probe stale = it.next();
+					if (now - stale.start > timeoutMillis) {
+						it.remove();
+						inFlight--;
+						complete(stale, onResult);
+					}
+				}
+				for (Iterator<Probe> it = open.iterator(); it.hasNext();) {
+					Probe stale = it.next();
+					if (now - stale.start > timeoutMillis) {
+						it.remove();
+						inFlight--;
+						complete(stale, onResult);
+					}
+				}
+			}
+			return 0;
+		} finally {
+			resolver.shutdownNow();
+		}
+	}
+
+	/** Set the time after which an unanswered probe is failed. */
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/** Set the time, from System.currentTimeMillis, at which the run is cut short. */
+	public void setDeadline(long deadlineMillis) {
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	/** Resolve host names through this cache. */
+	public void setDnsCache(DnsCache dnsCache) {
+		this.dnsCache = dnsCache;
+	}
+
+	/** Count open probes in these metrics. */
+	public void setMetrics(ProbeMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	// PRIVATE
+	private final int maxInFlight;
+	private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+	private long deadlineMillis = Long.MAX_VALUE;
+	private DnsCache dnsCache;
+	private ProbeMetrics metrics;
+
+	// Advance one probe. Return true when the probe is finished.
+	private boolean handle(SelectionKey key, Probe probe) {
+		try {
+			if (key.isConnectable()) {
+				probe.channel.finishConnect();
+				key.interestOps(SelectionKey.OP_WRITE);
+			} else if (key.isWritable()) {
+				probe.channel.write(probe.request);
+				if (!probe.request.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			} else if (key.isReadable()) {
+				int count = probe.channel.read(probe.response);
+				if (probe.parseStatus()) {
+					return true;
+				}
+				if (count < 0 || !probe.response.hasRemaining()) {
+					return true; // closed or no status line, fails
+				}
+			}
+			return false;
+		} catch (IOException ex) {
+			return true;
+		}
+	}
+
+	private void complete(Probe probe, Consumer<PingResult> onResult) {
+		if (probe.channel != null) {
+			try {
+				probe.channel.close();
+			} catch (IOException ex) {
+				// ignore - already finished
+			}
+		}
+		if (probe.started && metrics != null) {
+			metrics.probeFinished(probe.host);
+		}
+		PingResult result = new PingResult();
+		result.url = probe.url;
+		result.success = probe.responseCode > 0 && probe.responseCode < 500;
+		result.timingNanos = System.nanoTime() - probe.startNanos;
+		result.timing = TimeUnit.NANOSECONDS.toMillis(result.timingNanos);
+		onResult.accept(result);
+	}
+
+	/** State of one in-flight probe. */
+	private static final class Probe {
+		Probe(String aURL) {
+			url = aURL;
+			start = System.currentTimeMillis();
+			startNanos = System.nanoTime();
+		}
+
+		// Split the URL and build the request. Return false if unusable.
+		boolean parse() {
+			try {
+				URL parsed = new URL(url);
+				if (!"http".equalsIgnoreCase(parsed.getProtocol())) {
+					return false;
+				}
+				host = parsed.getHost();
+				port = parsed.getPort() < 0 ? parsed.getDefaultPort() : parsed.getPort();
+				String path = parsed.getFile().isEmpty() ? "/" : parsed.getFile();
+				String text = "GET " + path + " HTTP/1.1\r\n"
+					+ "Host: " + host + (port == parsed.getDefaultPort() ? "" : ":" + port) + "\r\n"
+					+ "Connection: close\r\n\r\n";
+				request = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+				return true;
+			} catch (MalformedURLException ex) {
+				return false;
+			}
+		}
+
+		// Look for "HTTP/1.x NNN" in what has been read so far.
+		boolean parseStatus() {
+			byte[] bytes = response.array();
+			int length = response.position();
+			for (int i = 0; i < length; i++) {
+				if (bytes[i] == '\n') {
+					String line = new String(bytes, 0, i, StandardCharsets.US_ASCII);
+					String[] parts = line.trim().split(" ");
+					if (parts.length >= 2 && parts[0].startsWith("HTTP/")) {
+						try {
+							responseCode = Integer.parseInt(parts[1]);
+						} catch (NumberFormatException ex) {
+							responseCode = -1;
+						}
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+
+		final String url;
+		final long start;
+		final long startNanos;
+		String host;
+		int port;
+		boolean started;
+		InetSocketAddress address;
+		SocketChannel channel;
+		ByteBuffer request;
+		final ByteBuffer response = ByteBuffer.allocate(512);
+		int responseCode = -1;
+	}
+}
@@ -0,0 +1,144 @@
+package com.example;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Open-loop load generator. Probes are sent at a fixed rate, on a fixed
+ * schedule, however slowly the answers come back.
+ * <p>
+ * Probe i is due at start + i / rate. Its latency is measured from that
+ * intended send time, not from when it was actually sent, so a stall in
+ * the target, or in this generator, counts against every probe it delayed.
+ * A closed loop measuring from the actual send hides such stalls: it
+ * simply sends less while the target is slow (coordinated omission).
+ * <p>
+ * At most maxInFlight probes are outstanding. When that many are waiting,
+ * sending falls behind schedule, the late probes are counted, and their
+ * wait still counts in their latency. The service time of each probe,
+ * from actual send to answer, is kept apart for comparison.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class OpenLoopGenerator {
+	/** A probe sent this long after it was due counts as late. */
+	public static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * @param executor runs the probes; must not queue them, so elastic
+	 * @param ratePerSecond probes sent per second
+	 * @param maxInFlight most probes outstanding at once
+	 */
+	public OpenLoopGenerator(ExecutorService executor, double ratePerSecond, int maxInFlight) {
+		this.executor = executor;
+		this.intervalNanos = Math.max(1, (long) (1e9 / ratePerSecond));
+		this.permits = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * Probe targets in turn, on schedule, for durationMillis. Then wait up
+	 * to drainMillis for answers still outstanding. Each result is given
+	 * to sink on the calling thread, its timing measured from the intended
+	 * send time. Return the number of probes never answered.
+	 */
+	public int run(List<String> targets, Function<String, Callable<PingResult>> probes,
+			long durationMillis, long drainMillis, Consumer<PingResult> sink)
+			throws InterruptedException, ExecutionException {
+		CompletionService<PingResult> completionService =
+			new ExecutorCompletionService<>(executor);
+		long start = System.nanoTime();
+		long count = TimeUnit.MILLISECONDS.toNanos(durationMillis) / intervalNanos;
+		int outstanding = 0;
+		for (long i = 0; i < count; i++) {
+			long intended = start + i * intervalNanos;
+			long wait;
+			while ((wait = intended - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+			permits.acquire();
+			if (System.nanoTime() - intended > LATE_NANOS) {
+				late.increment();
+			}
+			Callable<PingResult> probe = probes.apply(targets.get((int) (i % targets.size())));
+			completionService.submit(() -> timed(probe, intended));
+			sent.increment();
+			outstanding++;
+			Future<PingResult> future;
+			while ((future = completionService.poll()) != null) {
+				sink.accept(future.get());
+				outstanding--;
+			}
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainMillis);
+		for (; outstanding > 0; outstanding--) {
+			Future<PingResult> future = completionService.poll(
+				deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			if (future == null) {
+				break;
+			}
+			sink.accept(future.get());
+		}
+		return outstanding;
+	}
+
+	/** Probes sent so far. */
+	public long getSent() {
+		return sent.sum();
+	}
+
+	/** Probes sent more than LATE_NANOS after they were due. */
+	public long getLate() {
+		return late.sum();
+	}
+
+	/** Service times, from actual send to answer, without the schedule delay. */
+	public LatencyHistogram getServiceTimes() {
+		return serviceTimes;
+	}
+
+	@Override
+	public String toString() {
+		return "rate=" + String.format("%.1f", 1e9 / intervalNanos) + "/S sent=" + getSent()
+			+ " late=" + getLate() + " service time: " + serviceTimes;
+	}
+
+	// PRIVATE
+	private final ExecutorService executor;
+	private final long intervalNanos;
+	private final Semaphore permits;
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder late = new LongAdder();
+	private final LatencyHistogram serviceTimes = new LatencyHistogram();
+
+	// Run probe, then restate its timing from the intended send time.
+	private PingResult timed(Callable<PingResult> probe, long intended) throws Exception {
+		try {
+			long begin = System.nanoTime();
+			PingResult result = probe.call();
+			long end = System.nanoTime();
+			serviceTimes.record(end - begin);
+			result.lateNanos = begin - intended;
+			result.timingNanos = end - intended;
+			result.timing = TimeUnit.NANOSECONDS.toMillis(result.timingNanos);
+			return result;
+		} finally {
+			permits.release();
+		}
+	}
+}
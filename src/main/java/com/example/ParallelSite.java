@@ -1,31 +1,67 @@
 package com.example;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.net.HttpURLConnection;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.Random;
 
+import javax.management.JMException;
+import javax.net.ssl.HttpsURLConnection;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
 /**
  * Ping N web sites in parallel. The ping simply does a GET.
  * <p>
  * All sites are HTTP. Respone codes are checked.
- * Response code 500 will cause pingAndReportEachWhenKnownTerminateOnFail to
- * call ExecutorService.shutdownNow. 
+ * A failed probe will cause pingAndReportEachWhenKnownTerminateOnFail to
+ * cancel every outstanding probe: their threads are interrupted and their
+ * open connections disconnected.
  * <P>
- * No time-out is used here. As usual, be wary of warm-up of the just-in-time
+ * Each probe has a connect and a read time-out, and each run has an overall
+ * deadline. Probes still running at the deadline are cancelled and reported
+ * as failures. As usual, be wary of warm-up of the just-in-time
  * compiler. You might want to use -Xint.
  * <p>
  * From http://www.javapractices.com/topic/TopicAction.do?Id=247
@@ -35,6 +71,46 @@ import java.util.Random;
 public final class ParallelSite {
 	/** Maximum thread for parallel execution. */
 	public static final int MAX_THREADS = 8;
+	/** Upper bound for the adaptive concurrency limit. */
+	public static final int MAX_ADAPTIVE_LIMIT = 256;
+	/** Maximum probes open at once for non-blocking execution. */
+	public static final int MAX_IN_FLIGHT = 1024;
+	/** Read the whole body of a GET, so the connection can be reused. */
+	public static final long WHOLE_BODY = Long.MAX_VALUE;
+	/** Default bytes of a GET body read before its connection is dropped. */
+	public static final long BODY_LIMIT = 64 * 1024;
+	/** Default time to open a connection before the probe fails. */
+	public static final int CONNECT_TIMEOUT_MILLIS = 5000;
+	/** Default time to wait for response data before the probe fails. */
+	public static final int READ_TIMEOUT_MILLIS = 10000;
+	/** Default time for a whole run, after which probes are cancelled. */
+	public static final long RUN_DEADLINE_MILLIS = 30000;
+	/** Default latency percentile after which a hedge request is sent. */
+	public static final double HEDGE_PERCENTILE = 0.95;
+	/** Polite probes per second to any one host. */
+	public static final double HOST_RATE = 2.0;
+	/** Polite probes allowed back to back to one host. */
+	public static final int HOST_BURST = 2;
+	/** Polite probes per second over all hosts. */
+	public static final double GLOBAL_RATE = 200.0;
+	/** Times a failed probe is tried again by the completable strategy. */
+	public static final int MAX_RETRIES = 1;
+	/** Deadline of a probe given none, in mS. */
+	public static final long DEFAULT_DEADLINE_MILLIS = 10000;
+	/**
+	 * Longest a probe waits behind nearer deadlines, in mS. Kept below
+	 * DEFAULT_DEADLINE_MILLIS, or it would never apply to probes given no
+	 * deadline.
+	 */
+	public static final long MAX_WAIT_MILLIS = 5000;
+	/** Default length of an open-loop run, in mS. */
+	public static final long OPEN_LOOP_MILLIS = 10000;
+	/** Default time between probes of one target when monitoring, in mS. */
+	public static final long MONITOR_INTERVAL_MILLIS = 60000;
+	/** Default fraction by which a monitor interval may vary. */
+	public static final double MONITOR_JITTER = 0.1;
+	/** Time between monitor summaries, in mS. */
+	public static final long SUMMARY_MILLIS = 10000;
 
 	/** Pool of sites */
 	public static final List<String> URLs = Arrays.asList(
@@ -49,10 +125,90 @@ public final class ParallelSite {
 	);
 	public static final Random random = new Random();
 	
-	/** Run this tool. */
+	/**
+	 * Run this tool. 
+	 * <p>
+	 * Set -DvirtualThreads=true to run each task on its own virtual thread.
+	 * Set -DheadProbes=true to probe with HEAD, or -DbodyLimit=N to stop
+	 * reading a GET body after N bytes, BODY_LIMIT by default.
+	 * Set -DexpectText=keyword or -DexpectRegex=pattern, -DmaxBodyBytes=N
+	 * and -DexpectCrc32=hex to check the content of each body instead.
+	 * Set -DphaseTiming=true to time the connect, TLS, first byte and body
+	 * phases of each probe, reported per host.
+	 * Set -DconnectTimeout=mS, -DreadTimeout=mS and -DrunDeadline=mS to
+	 * bound each probe and each run.
+	 * Set -DopenLoopRate=N to instead send N probes per second, open loop,
+	 * for -DopenLoopDuration=mS.
+	 * Set -DmonitorInterval=mS to instead probe every target again and
+	 * again, each that often, varied by -DmonitorJitter=fraction, for
+	 * -DmonitorDuration=mS or until killed.
+	 * Set -Dshards=N to instead split the targets by host over N worker
+	 * processes.
+	 * Set -DresultLog=dir to append every result to a binary ResultLog in
+	 * that directory, and -Dquiet=true to log only run summaries.
+	 * Live ProbeMetrics are registered over JMX; set -DmetricsPort=N to
+	 * also serve them as plain text at http://localhost:N/metrics.
+	 * <p>
+	 * Given a file name, probe the URLs in that file, one per line, instead,
+	 * with no run deadline unless -DfileDeadline=mS is set.
+	 */
 	public static final void main(String... aArgs) {
+		setDefaultMaxConnections(MAX_THREADS);
 		ParallelSite checker = new ParallelSite();
+		checker.setVirtualThreads(Boolean.getBoolean("virtualThreads"));
+		checker.setHeadProbes(Boolean.getBoolean("headProbes"));
+		checker.setBodyLimit(Long.getLong("bodyLimit", BODY_LIMIT));
+		try {
+			checker.setContentCheck(ContentCheck.fromProperties(System.getProperties()));
+		} catch (IllegalArgumentException ex) {
+			log("Usage: " + ex.getMessage());
+			return;
+		}
+		checker.setPhaseTiming(Boolean.getBoolean("phaseTiming"));
+		checker.setTimeouts(Integer.getInteger("connectTimeout", CONNECT_TIMEOUT_MILLIS),
+			Integer.getInteger("readTimeout", READ_TIMEOUT_MILLIS));
+		checker.setRunDeadline(Long.getLong("runDeadline", RUN_DEADLINE_MILLIS));
+		checker.setQuiet(Boolean.getBoolean("quiet"));
+		log("Executor: " + checker.executorDescription());
 		try {
+			if (System.getProperty("resultLog") != null) {
+				checker.setResultLog(new ResultLog(Paths.get(System.getProperty("resultLog"))));
+			}
+			checker.getMetrics().register(ParallelSite.class.getSimpleName());
+			if (Integer.getInteger("metricsPort") != null) {
+				checker.getMetrics().serve(Integer.getInteger("metricsPort"));
+			}
+			if (aArgs.length > 0) {
+				log("Reactive, streaming targets from " + aArgs[0] + ":");
+				checker.pingAndReportFromFile(Paths.get(aArgs[0]), Long.getLong("fileDeadline", 0));
+				log("Done.");
+				return;
+			}
+			int shards = Integer.getInteger("shards", 0);
+			if (shards > 0) {
+				log("Sharded, by host over " + shards + " worker processes:");
+				checker.pingAndReportSharded(shards);
+				log("Done.");
+				return;
+			}
+			long monitorInterval = Long.getLong("monitorInterval", 0);
+			if (monitorInterval > 0) {
+				log("Monitor, each target every " + monitorInterval + " mS:");
+				checker.monitor(monitorInterval,
+					Double.parseDouble(System.getProperty("monitorJitter", String.valueOf(MONITOR_JITTER))),
+					Long.getLong("monitorDuration", Long.MAX_VALUE));
+				log("Done.");
+				return;
+			}
+			double openLoopRate = Double.parseDouble(System.getProperty("openLoopRate", "0"));
+			if (openLoopRate > 0) {
+				log("Open loop, " + openLoopRate + " probes per second:");
+				checker.pingAndReportOpenLoop(openLoopRate,
+					Long.getLong("openLoopDuration", OPEN_LOOP_MILLIS));
+				log("Done.");
+				return;
+			}
+
 			log("Parallel, report each as it completes:");
 			checker.pingAndReportEachWhenKnown();
 
@@ -64,6 +220,33 @@ public final class ParallelSite {
 
 			log("Parallel, terminate when one breaks:");
 			checker.pingAndReportEachWhenKnownTerminateOnFail();
+
+			log("Non-blocking, report each as it completes:");
+			checker.pingAndReportNonBlocking();
+
+			log("Parallel, hedge slow probes:");
+			checker.pingAndReportHedged();
+
+			log("Parallel, adaptive concurrency limit:");
+			checker.pingAndReportAdaptive();
+
+			log("Reactive, report each as it completes:");
+			checker.pingAndReportReactive(URLs);
+
+			log("Parallel, rate limited per host:");
+			checker.pingAndReportPolitely();
+
+			log("Parallel, host names resolved ahead of probes:");
+			checker.pingAndReportWithPrefetch();
+
+			log("Parallel, reusable workers and result slots:");
+			checker.pingAndReportPooled();
+
+			log("Work-stealing, completable stages with retry and validation:");
+			checker.pingAndReportCompletable();
+
+			log("Parallel, earliest deadline first:");
+			checker.pingAndReportByDeadline();
 		} catch (InterruptedException ex) {
 			log("Interruption occured: " + ex.getCause());
 			// Thread.currentThread().interrupt();
@@ -71,6 +254,13 @@ public final class ParallelSite {
 			log("Problem executing worker: " + ex.getCause());
 		} catch (MalformedURLException ex) {
 			log("Bad URL: " + ex.getCause());
+		} catch (IOException ex) {
+			log("I/O problem: " + ex);
+		} catch (JMException ex) {
+			log("JMX problem: " + ex);
+		} finally {
+			checker.closeResultLog();
+			checker.getMetrics().stop();
 		}
 		log("Done.");
 	}
@@ -83,22 +273,31 @@ public final class ParallelSite {
 	 */
 	void pingAndReportEachWhenKnown() throws InterruptedException,
 			ExecutionException {
-		long start = System.currentTimeMillis();
-		int numThreads = URLs.size() > MAX_THREADS ? MAX_THREADS : URLs.size(); 
-		ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
-		CompletionService<PingResult> completionService = 
-			new ExecutorCompletionService<>(executorService);
-		for (String url : URLs) {
-			Task task = new Task(url);
-			completionService.submit(task);
-		}
-		for (String url : URLs) {
-			Future<PingResult> future = completionService.take();
-			log(future.get());
-		}
-		executorService.shutdown(); // always reclaim resources
-		long duration = System.currentTimeMillis() - start;
-		log("Duration: " + duration + " mS");
+		long start = startRun();
+		try {
+			int numThreads = targets.size() > maxThreads ? maxThreads : targets.size(); 
+			ExecutorService executorService = newExecutor(numThreads);
+			CompletionService<PingResult> completionService = 
+				new ExecutorCompletionService<>(executorService);
+			for (String url : targets) {
+				Task task = new Task(url);
+				completionService.submit(task);
+			}
+			long deadline = start + runDeadlineMillis;
+			for (int i = 0; i < targets.size(); i++) {
+				long remaining = deadline - System.currentTimeMillis();
+				Future<PingResult> future = completionService.poll(remaining, TimeUnit.MILLISECONDS);
+				if (future == null) {
+					log("Deadline passed. Probes cancelled=" + (targets.size() - i));
+					executorService.shutdownNow();
+					break;
+				}
+				report(future.get());
+			}
+			executorService.shutdown(); // always reclaim resources
+		} finally {
+			endRun(start);
+		}
 	}
 
 	/**
@@ -108,21 +307,28 @@ public final class ParallelSite {
 	 * Report the result only when all have completed.
 	 */
 	void pingAndReportAllAtEnd() throws InterruptedException, ExecutionException {
-		long start = System.currentTimeMillis();
-		Collection<Callable<PingResult>> tasks = new ArrayList<>();
-		for (String url : URLs) {
-			tasks.add(new Task(url));
-		}
-		int numThreads = URLs.size() > MAX_THREADS ? MAX_THREADS : URLs.size();
-		ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
-		List<Future<PingResult>> results = executorService.invokeAll(tasks);
-		for (Future<PingResult> result : results) {
-			PingResult pingResult = result.get();
-			log(pingResult);
-		}
-		executorService.shutdown(); // always reclaim resources
-		long duration = System.currentTimeMillis() - start;
-		log("Duration: " + duration + " mS");
+		long start = startRun();
+		try {
+			Collection<Callable<PingResult>> tasks = new ArrayList<>();
+			for (String url : targets) {
+				tasks.add(new Task(url));
+			}
+			int numThreads = targets.size() > maxThreads ? maxThreads : targets.size();
+			ExecutorService executorService = newExecutor(numThreads);
+			List<Future<PingResult>> results = 
+				executorService.invokeAll(tasks, runDeadlineMillis, TimeUnit.MILLISECONDS);
+			for (Future<PingResult> result : results) {
+				try {
+					PingResult pingResult = result.get();
+					report(pingResult);
+				} catch (CancellationException ex) {
+					log("   Result:false cancelled at deadline");
+				}
+			}
+			executorService.shutdown(); // always reclaim resources
+		} finally {
+			endRun(start);
+		}
 	}
 
 	/**
@@ -130,13 +336,20 @@ public final class ParallelSite {
 	 * Does not use multiple threads at all.
 	 */
 	void pingAndReportSequentially() throws MalformedURLException {
-		long start = System.currentTimeMillis();
-		for (String url : URLs) {
-			PingResult pingResult = pingAndReportStatus(url);
-			log(pingResult);
+		long start = startRun();
+		try {
+			long deadline = start + runDeadlineMillis;
+			for (String url : targets) {
+				if (System.currentTimeMillis() > deadline) {
+					log("Deadline passed. Remaining probes skipped.");
+					break;
+				}
+				PingResult pingResult = pingAndReportStatus(url);
+				report(pingResult);
+			}
+		} finally {
+			endRun(start);
 		}
-		long duration = System.currentTimeMillis() - start;
-		log("Duration: " + duration + " mS");
 	}
 
 	/**
@@ -147,38 +360,796 @@ public final class ParallelSite {
 	 * <p>
 	 * A random URL failure is injected (mis-spelled URL).
 	 * The task will fail when this is encountered.
+	 * <p>
+	 * Fails fast. The first failure cancels every outstanding probe and
+	 * disconnects its connection, since blocking HTTP reads ignore
+	 * interrupts. A probe still connecting runs out its connect time-out in
+	 * the background; the run does not wait for it.
+	 * The results reported so far are the partial result of the run.
 	 */
 	void pingAndReportEachWhenKnownTerminateOnFail() throws InterruptedException,
 			ExecutionException {
-		long start = System.currentTimeMillis();
-		int numThreads = URLs.size() > MAX_THREADS ? MAX_THREADS : URLs.size(); 
-		ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
-		CompletionService<PingResult> completionService = 
-			new ExecutorCompletionService<>(executorService);
-		// int brokenURL = random.nextInt( URLs.size( ) / 2 );
-		for (int i = 0; i < URLs.size(); i++) {
-			String urlString = URLs.get(i);
-			if ( i == 0 ) {
-				// Make one URL broken
-				urlString = breakString( 10, 3, urlString );
-			}
-			Task task = new Task(urlString);
-			completionService.submit(task);
-		}
-		for (String url : URLs) {
-			Future<PingResult> future = completionService.take();
-			PingResult result = future.get();
-			log(result);
-			if ( !result.success ) {
-				// List<Runnable> waiting = executor.shutdownNow(); // Interrupts all threads. Leaves a zombie.
-				// log( "Shutdown called. Waiting task count=" + waiting.size());
-				// executor.shutdown(); // Waits for threads to complete
-				log( "Shutdown called." );
-				shutdownAndAwaitTermination( executorService, 4 );
+		long start = startRun();
+		try {
+			int numThreads = targets.size() > maxThreads ? maxThreads : targets.size(); 
+			ExecutorService executorService = newExecutor(numThreads);
+			CompletionService<PingResult> completionService = 
+				new ExecutorCompletionService<>(executorService);
+			Set<HttpURLConnection> inFlight = ConcurrentHashMap.newKeySet();
+			List<Future<PingResult>> futures = new ArrayList<>();
+			// int brokenURL = random.nextInt( URLs.size( ) / 2 );
+			for (int i = 0; i < targets.size(); i++) {
+				String urlString = targets.get(i);
+				if ( i == 0 ) {
+					// Make one URL broken
+					urlString = breakString( 10, 3, urlString );
+				}
+				Task task = new Task(urlString, inFlight);
+				futures.add(completionService.submit(task));
+			}
+			long deadline = start + runDeadlineMillis;
+			int reported = 0;
+			while (reported < targets.size()) {
+				long remaining = deadline - System.currentTimeMillis();
+				Future<PingResult> future = completionService.poll(remaining, TimeUnit.MILLISECONDS);
+				if (future == null) {
+					log("Deadline passed. Probes cancelled=" + cancelAll(futures, inFlight));
+					break;
+				}
+				PingResult result = future.get();
+				report(result);
+				reported++;
+				if ( !result.success ) {
+					// shutdownAndAwaitTermination waits up to twice its delay for
+					// probes that ignore the interrupt. Close their sockets instead.
+					log( "Terminated on failure. Probes cancelled=" + cancelAll(futures, inFlight));
+					break;
+				}
 			}
+			executorService.shutdownNow(); // always reclaim resources
+			log("Partial results: " + reported + " of " + targets.size());
+		} finally {
+			endRun(start);
 		}
-		long duration = System.currentTimeMillis() - start;
-		log("Duration: " + duration + " mS");
+	}
+
+	/**
+	 * Check N sites, in parallel, using non-blocking I/O.
+	 * <p>
+	 * A single selector thread keeps up to MAX_IN_FLIGHT probes open and
+	 * reports the result of each 'ping' as it comes in. Probes still open
+	 * at the run deadline are failed, and no more are started.
+	 */
+	void pingAndReportNonBlocking() throws IOException {
+		long start = startRun();
+		try {
+			NioProbeEngine engine = new NioProbeEngine(maxInFlight);
+			engine.setTimeoutMillis(connectTimeoutMillis + readTimeoutMillis);
+			engine.setDeadline(start + runDeadlineMillis);
+			engine.setDnsCache(dnsCache);
+			engine.setMetrics(metrics);
+			int cancelled = engine.probe(targets, result -> report(result));
+			if (cancelled > 0) {
+				log("Deadline passed. Probes cancelled=" + cancelled + ". Remaining probes skipped.");
+			}
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check N sites, in parallel, using up to MAX_THREADS, with hedging.
+	 * <p>
+	 * Once a probe is slower than HEDGE_PERCENTILE of recent probes, a
+	 * second request is sent and the first answer wins. Attempts run on
+	 * their own pool so hedges never wait behind the probes that spawned them.
+	 * Each latency is reported from the first send, hedge delay included.
+	 */
+	void pingAndReportHedged() throws InterruptedException, ExecutionException {
+		long start = startRun();
+		try {
+			int numThreads = targets.size() > maxThreads ? maxThreads : targets.size();
+			ExecutorService executorService = newExecutor(numThreads);
+			ExecutorService attemptService = newExecutor(2 * numThreads);
+			Hedger hedger = new Hedger(attemptService, HEDGE_PERCENTILE);
+			CompletionService<PingResult> completionService = 
+				new ExecutorCompletionService<>(executorService);
+			for (String url : targets) {
+				completionService.submit(() -> hedger.probe(inFlight -> new Task(url, inFlight)));
+			}
+			long deadline = start + runDeadlineMillis;
+			for (int i = 0; i < targets.size(); i++) {
+				long remaining = deadline - System.currentTimeMillis();
+				Future<PingResult> future = completionService.poll(remaining, TimeUnit.MILLISECONDS);
+				if (future == null) {
+					log("Deadline passed. Probes cancelled=" + (targets.size() - i));
+					executorService.shutdownNow();
+					break;
+				}
+				report(future.get());
+			}
+			executorService.shutdownNow(); // also cancels losing hedges
+			attemptService.shutdownNow();
+			log("Hedges sent: " + hedger.getHedges());
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check N sites, in parallel, with an adaptive concurrency limit.
+	 * <p>
+	 * Starts at MAX_THREADS probes in flight. The AdaptiveLimiter raises the
+	 * limit while latency stays flat, and lowers it when latency or
+	 * failures rise. Threads are created as the limit needs them.
+	 */
+	void pingAndReportAdaptive() throws InterruptedException, ExecutionException {
+		long start = startRun();
+		try {
+			AdaptiveLimiter limiter = new AdaptiveLimiter(maxThreads, 1, MAX_ADAPTIVE_LIMIT);
+			ExecutorService executorService = newElasticExecutor();
+			CompletionService<PingResult> completionService = 
+				new ExecutorCompletionService<>(executorService);
+			long deadline = start + runDeadlineMillis;
+			int submitted = 0;
+			int reported = 0;
+			for (String url : targets) {
+				// tryAcquire takes a free slot even when no time is left.
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0 || !limiter.tryAcquire(remaining, TimeUnit.MILLISECONDS)) {
+					log("Deadline passed. Probes skipped=" + (targets.size() - submitted));
+					break;
+				}
+				Task task = new Task(url);
+				completionService.submit(() -> {
+					PingResult result = null;
+					try {
+						result = task.call();
+						return result;
+					} finally {
+						limiter.release(result == null ? TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis)
+							: result.timingNanos, result != null && result.success);
+					}
+				});
+				submitted++;
+				Future<PingResult> future;
+				while ((future = completionService.poll()) != null) {
+					report(future.get());
+					reported++;
+				}
+			}
+			for (; reported < submitted; reported++) {
+				long remaining = deadline - System.currentTimeMillis();
+				Future<PingResult> future = completionService.poll(remaining, TimeUnit.MILLISECONDS);
+				if (future == null) {
+					log("Deadline passed. Probes cancelled=" + (submitted - reported));
+					break;
+				}
+				report(future.get());
+			}
+			executorService.shutdownNow(); // always reclaim resources
+			log("Limiter: " + limiter);
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check N sites, in parallel, using up to MAX_THREADS, as an RxJava
+	 * Observable pipeline.
+	 * <p>
+	 * URLs flow from the source, through flatMap with at most numThreads
+	 * probes subscribed at once, to the logger. flatMap only requests
+	 * another URL when a probe finishes, so a source of millions of URLs
+	 * is read lazily rather than turned into millions of queued tasks.
+	 */
+	void pingAndReportReactive(Collection<String> urls) {
+		long start = startRun();
+		try {
+			long reported = probeReactively(urls, runDeadlineMillis);
+			if (reported < urls.size()) {
+				log("Deadline passed. Probes cancelled=" + (urls.size() - reported));
+			}
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check every URL listed in a file, in parallel, using up to MAX_THREADS.
+	 * <p>
+	 * The file is streamed through a bounded queue into the reactive
+	 * pipeline, so probing starts at once and memory stays flat however
+	 * many lines the file has.
+	 * <p>
+	 * A file may hold far more URLs than one run deadline allows, so the
+	 * run stops at deadlineMillis only if it is positive. When it stops
+	 * early the rest of the file is counted, and the lines not probed are
+	 * logged.
+	 */
+	void pingAndReportFromFile(Path file, long deadlineMillis)
+			throws IOException, InterruptedException {
+		long start = startRun();
+		try (UrlFileSource source = new UrlFileSource(file)) {
+			long reported = probeReactively(source, deadlineMillis);
+			source.skipRest();
+			log("Lines read: " + source.getLineCount());
+			if (reported < source.getLineCount()) {
+				log("Deadline passed. Lines not probed=" + (source.getLineCount() - reported));
+			}
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause(); // the file could not be read
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check N sites, in parallel, using up to MAX_THREADS, politely.
+	 * <p>
+	 * A PoliteScheduler sits in front of the completion service. It releases
+	 * at most HOST_RATE probes per second to each host and GLOBAL_RATE
+	 * overall, taking hosts in turn. Pool threads only ever run probes.
+	 */
+	void pingAndReportPolitely() throws InterruptedException, ExecutionException {
+		long start = startRun();
+		try {
+			int numThreads = targets.size() > maxThreads ? maxThreads : targets.size();
+			ExecutorService executorService = newExecutor(numThreads);
+			CompletionService<PingResult> completionService = 
+				new ExecutorCompletionService<>(executorService);
+			PoliteScheduler scheduler = new PoliteScheduler(GLOBAL_RATE, HOST_RATE, HOST_BURST);
+			for (String url : targets) {
+				Task task = new Task(url);
+				scheduler.submit(hostOf(url), () -> completionService.submit(task));
+			}
+			long deadline = start + runDeadlineMillis;
+			for (int i = 0; i < targets.size(); i++) {
+				long remaining = deadline - System.currentTimeMillis();
+				Future<PingResult> future = completionService.poll(remaining, TimeUnit.MILLISECONDS);
+				if (future == null) {
+					log("Deadline passed. Probes cancelled=" + (targets.size() - i)
+						+ ", never released=" + scheduler.getWaiting());
+					break;
+				}
+				report(future.get());
+			}
+			scheduler.shutdown();
+			executorService.shutdownNow(); // always reclaim resources
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check N sites, in parallel, using up to MAX_THREADS, resolving host
+	 * names ahead of the probes.
+	 * <p>
+	 * Lookups of all distinct hosts start at once on their own pool, alongside
+	 * the probes. A probe whose host is still being looked up waits for that
+	 * lookup rather than starting another.
+	 */
+	void pingAndReportWithPrefetch() throws InterruptedException, ExecutionException {
+		long start = startRun();
+		try {
+			ExecutorService resolverService = watched(Executors.newFixedThreadPool(NioProbeEngine.RESOLVER_THREADS,
+				accountedThreads()));
+			dnsCache.prefetch(targets, resolverService);
+			int numThreads = targets.size() > maxThreads ? maxThreads : targets.size(); 
+			ExecutorService executorService = newExecutor(numThreads);
+			CompletionService<PingResult> completionService = 
+				new ExecutorCompletionService<>(executorService);
+			for (String url : targets) {
+				Task task = new Task(url);
+				completionService.submit(task);
+			}
+			long deadline = start + runDeadlineMillis;
+			for (int i = 0; i < targets.size(); i++) {
+				long remaining = deadline - System.currentTimeMillis();
+				Future<PingResult> future = completionService.poll(remaining, TimeUnit.MILLISECONDS);
+				if (future == null) {
+					log("Deadline passed. Probes cancelled=" + (targets.size() - i));
+					break;
+				}
+				report(future.get());
+			}
+			executorService.shutdownNow(); // always reclaim resources
+			resolverService.shutdownNow();
+			log("DNS: " + dnsCache);
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check N sites, in parallel, using up to MAX_THREADS, allocating as
+	 * little as possible per probe around the probe itself.
+	 * <p>
+	 * One reusable worker per thread takes the next target id from a shared
+	 * counter, probes it with its own result object and body buffer, and
+	 * copies the result into ResultSlots. Parsed URLs and the slots are
+	 * kept from run to run, so no Task, Future or PingResult is created per
+	 * probe. Each probe still allocates its HttpURLConnection, any redirect
+	 * URL, and metrics entries for a host not seen before. Results are
+	 * reported once all are in, or at the deadline, through one PingResult
+	 * that is refilled for each, so a listener must copy what it keeps.
+	 * <p>
+	 * Workers write only to the slots of their own run. Slots are kept for
+	 * the next run only if every worker finished, since a worker past the
+	 * deadline may still write to them.
+	 */
+	void pingAndReportPooled() throws InterruptedException {
+		long start = startRun();
+		try {
+			int size = targets.size();
+			URL[] urls = parsedTargets();
+			ResultSlots runSlots = slots != null && slots.getCapacity() >= size ? slots : new ResultSlots(size);
+			slots = null;
+			runSlots.clear(size);
+			int numThreads = size > maxThreads ? maxThreads : size;
+			ExecutorService executorService = newExecutor(numThreads);
+			AtomicInteger next = new AtomicInteger();
+			CountDownLatch finished = new CountDownLatch(size);
+			for (int i = 0; i < numThreads; i++) {
+				executorService.execute(new PooledWorker(urls, runSlots, next, finished));
+			}
+			boolean allIn = finished.await(runDeadlineMillis, TimeUnit.MILLISECONDS);
+			if (!allIn) {
+				log("Deadline passed. Probes cancelled=" + finished.getCount());
+			}
+			executorService.shutdownNow(); // always reclaim resources
+			PingResult result = new PingResult();
+			for (int id = 0; id < size; id++) {
+				if (runSlots.get(id, result)) {
+					result.url = targets.get(id);
+					report(result);
+				}
+			}
+			if (allIn) {
+				slots = runSlots; // no worker can write to them now
+			}
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check N sites, in parallel, using up to MAX_THREADS probes at once,
+	 * as CompletableFuture stages on a work-stealing ForkJoinPool.
+	 * <p>
+	 * Each probe is a chain: the probe, up to MAX_RETRIES retries if it
+	 * failed, then validation, then a hand-off to the reporting thread,
+	 * which reports each as it completes. Probes block inside
+	 * ForkJoinPool.managedBlock, so the pool adds threads while they wait
+	 * and later stages never queue behind blocked probes. A semaphore keeps
+	 * at most MAX_THREADS probes in flight. Virtual threads are not used.
+	 */
+	void pingAndReportCompletable() throws InterruptedException {
+		long start = startRun();
+		try {
+			int numThreads = targets.size() > maxThreads ? maxThreads : targets.size();
+			ForkJoinPool pool = watched(new ForkJoinPool(Math.max(1, numThreads),
+				AccountedWorker::new, null, false));
+			Semaphore permits = new Semaphore(Math.max(1, numThreads));
+			BlockingQueue<PingResult> completed = new LinkedBlockingQueue<>();
+			AtomicInteger retries = new AtomicInteger();
+			long deadline = start + runDeadlineMillis;
+			int submitted = 0;
+			int reported = 0;
+			for (String url : targets) {
+				// tryAcquire takes a free permit even when no time is left.
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0 || !permits.tryAcquire(remaining, TimeUnit.MILLISECONDS)) {
+					break;
+				}
+				CompletableFuture.supplyAsync(() -> managedProbe(url), pool)
+					.thenCompose(result -> retried(result, MAX_RETRIES, pool, retries))
+					.thenApply(this::validated)
+					.whenComplete((result, ex) -> {
+						permits.release();
+						completed.add(result != null ? result : failedResult(url));
+					});
+				submitted++;
+				PingResult result;
+				while ((result = completed.poll()) != null) {
+					report(result);
+					reported++;
+				}
+			}
+			for (; reported < submitted; reported++) {
+				long remaining = deadline - System.currentTimeMillis();
+				PingResult result = completed.poll(remaining, TimeUnit.MILLISECONDS);
+				if (result == null) {
+					break;
+				}
+				report(result);
+			}
+			if (reported < targets.size()) {
+				log("Deadline passed. Probes cancelled=" + (submitted - reported)
+					+ ", skipped=" + (targets.size() - submitted));
+			}
+			pool.shutdownNow(); // always reclaim resources
+			log("Retries: " + retries);
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check N sites, in parallel, using up to MAX_THREADS, earliest
+	 * deadline first.
+	 * <p>
+	 * Each URL is due within its deadline from setDeadlines, or
+	 * DEFAULT_DEADLINE_MILLIS. An EdfScheduler runs the waiting probe with
+	 * the nearest deadline next, but no probe waits more than
+	 * MAX_WAIT_MILLIS behind others. Met and missed deadlines are logged,
+	 * and counted in ProbeMetrics with how late the misses were.
+	 * Virtual threads are not used, since they would not queue.
+	 */
+	void pingAndReportByDeadline() throws InterruptedException, ExecutionException {
+		long start = startRun();
+		try {
+			int numThreads = targets.size() > maxThreads ? maxThreads : targets.size();
+			EdfScheduler scheduler = new EdfScheduler(Math.max(1, numThreads), MAX_WAIT_MILLIS, accountedThreads());
+			watched(scheduler.getExecutor());
+			scheduler.setMetrics(metrics);
+			for (String url : targets) {
+				Long deadline = deadlines.get(url);
+				scheduler.submit(new Task(url), deadline != null ? deadline : DEFAULT_DEADLINE_MILLIS);
+			}
+			long deadline = start + runDeadlineMillis;
+			for (int i = 0; i < targets.size(); i++) {
+				long remaining = deadline - System.currentTimeMillis();
+				PingResult result = scheduler.poll(remaining);
+				if (result == null) {
+					log("Deadline passed. Probes cancelled=" + (targets.size() - i));
+					break;
+				}
+				report(result);
+			}
+			scheduler.shutdownNow(); // always reclaim resources
+			log("Deadlines: " + scheduler);
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check N sites, split by host over several worker processes, each
+	 * using up to MAX_THREADS.
+	 * <p>
+	 * A ShardCoordinator starts the workers with this checker's settings,
+	 * and reports each result as it streams in. Targets of a worker that
+	 * fails are split again over the others. Each process has its own
+	 * heap and file descriptors, so one JVM's limits no longer cap the run.
+	 */
+	void pingAndReportSharded(int workers) throws IOException, InterruptedException {
+		long start = startRun();
+		try {
+			Map<String, String> properties = new LinkedHashMap<>();
+			properties.put("virtualThreads", String.valueOf(useVirtualThreads));
+			properties.put("headProbes", String.valueOf(headProbes));
+			properties.put("bodyLimit", String.valueOf(bodyLimit));
+			properties.put("phaseTiming", String.valueOf(phaseTiming));
+			properties.put("connectTimeout", String.valueOf(connectTimeoutMillis));
+			properties.put("readTimeout", String.valueOf(readTimeoutMillis));
+			properties.put("runDeadline", String.valueOf(runDeadlineMillis));
+			properties.put("maxThreads", String.valueOf(maxThreads));
+			String maxConnections = System.getProperty("http.maxConnections");
+			if (maxConnections != null) {
+				properties.put("http.maxConnections", maxConnections);
+			}
+			for (String name : ContentCheck.PROPERTIES) {
+				if (System.getProperty(name) != null) {
+					properties.put(name, System.getProperty(name));
+				}
+			}
+			ShardCoordinator coordinator = new ShardCoordinator(workers,
+				ShardCoordinator.workerCommand(properties));
+			int unanswered = coordinator.run(targets, runDeadlineMillis, result -> report(result));
+			if (unanswered > 0) {
+				log("Deadline passed. Probes cancelled=" + unanswered);
+			}
+			log("Shards: " + coordinator + " merged latency: " + coordinator.getMerged());
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Check N sites at a fixed rate, open loop, for durationMillis.
+	 * <p>
+	 * Unlike the other strategies, which send the next probe when one
+	 * finishes, probes go out on schedule however slowly answers come back.
+	 * Latency is measured from each probe's intended send time, so a stall
+	 * is not hidden by the probes it held back. Targets are probed in turn,
+	 * repeating as needed. At most MAX_IN_FLIGHT probes are outstanding.
+	 */
+	void pingAndReportOpenLoop(double ratePerSecond, long durationMillis)
+			throws InterruptedException, ExecutionException {
+		long start = startRun();
+		try {
+			ExecutorService executorService = newElasticExecutor();
+			OpenLoopGenerator generator = new OpenLoopGenerator(executorService, ratePerSecond, maxInFlight);
+			int unanswered = generator.run(targets, url -> new Task(url), durationMillis,
+				connectTimeoutMillis + readTimeoutMillis, result -> report(result));
+			if (unanswered > 0) {
+				log("Drain time passed. Probes cancelled=" + unanswered);
+			}
+			executorService.shutdownNow(); // always reclaim resources
+			log("Open loop: " + generator);
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/**
+	 * Monitor N sites, probing each every intervalMillis, varied by up to
+	 * jitter, using up to MAX_THREADS, for durationMillis.
+	 * <p>
+	 * A ProbeMonitor keeps one timer per target on a timing wheel, so
+	 * scheduling cost stays flat with many targets. Every SUMMARY_MILLIS
+	 * the latency of the whole run so far is logged. Results are also kept
+	 * in a ProbeHistory, by URL, with minute and hour rollups.
+	 * <p>
+	 * Probe threads only queue their results. This thread reports them, as
+	 * the other strategies do, so listeners see one reporting thread.
+	 */
+	void monitor(long intervalMillis, double jitter, long durationMillis)
+			throws InterruptedException {
+		long start = startRun();
+		try {
+			history = new ProbeHistory();
+			ExecutorService executorService = newExecutor(maxThreads);
+			BlockingQueue<PingResult> results = new LinkedBlockingQueue<>();
+			ProbeMonitor monitor = new ProbeMonitor(executorService, url -> new Task(url),
+				results::add, jitter);
+			for (String url : targets) {
+				monitor.add(url, intervalMillis);
+			}
+			long end = durationMillis > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + durationMillis;
+			long summary = start + SUMMARY_MILLIS;
+			long now;
+			while ((now = System.currentTimeMillis()) < end) {
+				if (now >= summary) {
+					log("Monitor: " + monitor + " latency: " + recorder.getRun()
+						+ " failures=" + recorder.getFailures());
+					log("History: " + history);
+					summary = now + SUMMARY_MILLIS;
+				}
+				PingResult result = results.poll(Math.min(end, summary) - now, TimeUnit.MILLISECONDS);
+				if (result != null) {
+					report(result);
+				}
+			}
+			monitor.stop();
+			executorService.shutdownNow(); // always reclaim resources
+			PingResult result;
+			while ((result = results.poll()) != null) {
+				report(result);
+			}
+			log("Monitor: " + monitor + " latency: " + recorder.getRun()
+				+ " failures=" + recorder.getFailures());
+			log("History: " + history);
+		} finally {
+			endRun(start);
+		}
+	}
+
+	/** Probe these URLs instead of the default pool of sites. */
+	public void setTargets(List<String> targets) {
+		this.targets = targets;
+	}
+
+	/** Set the thread limit of the pooled strategies, and the in-flight limit of non-blocking ones. */
+	public void setConcurrency(int maxThreads, int maxInFlight) {
+		this.maxThreads = maxThreads;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/** When quiet, only run summaries are logged, not each result. */
+	public void setQuiet(boolean quiet) {
+		this.quiet = quiet;
+	}
+
+	/** Latencies recorded by the current or last strategy run. */
+	public LatencyRecorder getLatencies() {
+		return recorder;
+	}
+
+	/** History by URL kept by the current or last monitor run, or null. */
+	public ProbeHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Set the check the completable strategy applies to each successful
+	 * probe. A probe it rejects is reported as failed. By default a probe
+	 * is valid when it answered 2xx or 3xx.
+	 */
+	public void setValidator(Predicate<PingResult> validator) {
+		this.validator = validator;
+	}
+
+	/**
+	 * Set the deadline of each URL, in mS from submission, for the
+	 * deadline strategy. A more important URL gets a shorter deadline.
+	 */
+	public void setDeadlines(Map<String, Long> deadlines) {
+		this.deadlines = deadlines;
+	}
+
+	/** Live metrics of this checker's executors, probes and results. */
+	public ProbeMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Also pass every reported result to listener, on the reporting thread.
+	 * The result may be reused once listener returns, so copy what you keep.
+	 */
+	public void setListener(Consumer<PingResult> listener) {
+		this.listener = listener;
+	}
+
+	/** Also append every result to this log. */
+	public void setResultLog(ResultLog resultLog) {
+		this.resultLog = resultLog;
+	}
+
+	/** Close the result log, if any. */
+	public void closeResultLog() {
+		if (resultLog != null) {
+			try {
+				log("Result log: " + resultLog);
+				resultLog.close();
+			} catch (IOException ex) {
+				log("Result log problem: " + ex);
+			}
+			resultLog = null;
+		}
+	}
+
+	/** Set the connect and read time-outs of each probe, in mS. */
+	public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	/** Set the time allowed for a whole run, in mS. */
+	public void setRunDeadline(long runDeadlineMillis) {
+		this.runDeadlineMillis = runDeadlineMillis;
+	}
+
+	/**
+	 * Choose how strategies run their tasks. When true, and the JVM
+	 * supports it, each task gets its own virtual thread. Otherwise a
+	 * fixed pool of platform threads is used.
+	 */
+	public void setVirtualThreads(boolean useVirtualThreads) {
+		this.useVirtualThreads = useVirtualThreads;
+	}
+
+	/**
+	 * Probe with HEAD instead of GET. No body is sent, and the connection
+	 * goes straight back to the per-host keep-alive pool.
+	 */
+	public void setHeadProbes(boolean headProbes) {
+		this.headProbes = headProbes;
+	}
+
+	/**
+	 * The JDK pools keep-alive connections per host, but keeps only 5 idle
+	 * by default. Allow connections idle per host instead, unless
+	 * -Dhttp.maxConnections is set. Call before the first connection.
+	 */
+	public static void setDefaultMaxConnections(int connections) {
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", String.valueOf(connections));
+		}
+	}
+
+	/**
+	 * Stop reading a GET body after this many bytes, BODY_LIMIT by
+	 * default, or WHOLE_BODY for no limit. A body read to the end lets the
+	 * connection be reused; a body cut short closes it.
+	 */
+	public void setBodyLimit(long bodyLimit) {
+		this.bodyLimit = bodyLimit;
+	}
+
+	/**
+	 * Check the body of each answer below 400 as it is read, or not, if
+	 * null. A probe whose body fails the check fails. The body is read
+	 * until the check is decided, whatever the body limit, and the
+	 * connection is dropped if that is before its end. HEAD probes and
+	 * phase-timed probes are not checked.
+	 */
+	public void setContentCheck(ContentCheck contentCheck) {
+		this.contentCheck = contentCheck;
+	}
+
+	/**
+	 * Time each phase of a probe: connect, TLS handshake, first byte and
+	 * body, besides name resolution. Probes then use a PhasedProbe on a new
+	 * connection each time, instead of the keep-alive pool.
+	 */
+	public void setPhaseTiming(boolean phaseTiming) {
+		this.phaseTiming = phaseTiming;
+	}
+
+	/** Describe the executor that strategies will use. */
+	public String executorDescription() {
+		if (useVirtualThreads) {
+			return VIRTUAL_THREAD_FACTORY != null ? "virtual thread per task"
+				: "fixed thread pool (virtual threads not supported by this JVM)";
+		}
+		return "fixed thread pool";
+	}
+
+	/**
+	 * Create the executor for one strategy run. A virtual thread per task
+	 * when enabled and supported, otherwise a fixed pool of numThreads.
+	 * The metrics watch it until the run ends.
+	 */
+	ExecutorService newExecutor(int numThreads) {
+		if (useVirtualThreads && VIRTUAL_THREAD_FACTORY != null) {
+			try {
+				return watched((ExecutorService) VIRTUAL_THREAD_FACTORY.invoke(null));
+			} catch (ReflectiveOperationException ex) {
+				// fall through to the fixed pool
+			}
+		}
+		return watched(Executors.newFixedThreadPool(numThreads, accountedThreads()));
+	}
+
+	/**
+	 * Create an executor whose thread count follows demand. A virtual
+	 * thread per task when enabled and supported, otherwise a cached pool.
+	 */
+	ExecutorService newElasticExecutor() {
+		if (useVirtualThreads && VIRTUAL_THREAD_FACTORY != null) {
+			return newExecutor(1);
+		}
+		return watched(Executors.newCachedThreadPool(accountedThreads()));
+	}
+
+	// Threads that add their use to the run's cost as they end.
+	private ThreadFactory accountedThreads() {
+		ThreadFactory threads = Executors.defaultThreadFactory();
+		return runnable -> threads.newThread(() -> {
+			try {
+				runnable.run();
+			} finally {
+				cost.threadEnded();
+			}
+		});
+	}
+
+	// Have the metrics watch executor. Return it.
+	private <E extends ExecutorService> E watched(E executor) {
+		metrics.watch(executor);
+		return executor;
+	}
+
+	/**
+	 * Cancel every probe not yet done. Interrupt its thread, which stops a
+	 * phase-timed probe at once. Then disconnect every open connection, so
+	 * a blocked read fails at once; disconnect cannot abort a connect, which
+	 * ends at its own time-out.
+	 * Return the number of probes cancelled.
+	 */
+	private int cancelAll(List<Future<PingResult>> futures, Set<HttpURLConnection> inFlight) {
+		int cancelled = 0;
+		for (Future<PingResult> future : futures) {
+			if (future.cancel(true)) {
+				cancelled++;
+			}
+		}
+		for (HttpURLConnection connection : inFlight) {
+			connection.disconnect();
+		}
+		return cancelled;
 	}
 
 	/** The following method shuts down an ExecutorService in two phases, 
@@ -205,6 +1176,151 @@ public final class ParallelSite {
 	}
 	
 	// PRIVATE
+	// Size of the buffer a probe reads bodies through.
+	private static final int BUFFER_BYTES = 4096;
+	// Most idle body buffers kept for reuse, enough for the largest limit.
+	private static final int POOLED_BUFFERS = MAX_ADAPTIVE_LIMIT;
+	// Idle body buffers. A pool rather than one per thread, since a virtual
+	// thread runs only one probe.
+	private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+	// Executors.newVirtualThreadPerTaskExecutor, or null before Java 21.
+	private static final Method VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+	private List<String> targets = URLs;
+	private int maxThreads = MAX_THREADS;
+	private int maxInFlight = MAX_IN_FLIGHT;
+	private boolean quiet;
+	private boolean useVirtualThreads;
+	private boolean headProbes;
+	private long bodyLimit = BODY_LIMIT;
+	private ContentCheck contentCheck;
+	private boolean phaseTiming;
+	private int connectTimeoutMillis = CONNECT_TIMEOUT_MILLIS;
+	private int readTimeoutMillis = READ_TIMEOUT_MILLIS;
+	private long runDeadlineMillis = RUN_DEADLINE_MILLIS;
+	private final DnsCache dnsCache = new DnsCache();
+	private final TlsSessions tlsSessions = new TlsSessions();
+	private final RedirectMemo redirects = new RedirectMemo();
+	private final ProbeMetrics metrics = new ProbeMetrics();
+	private volatile LatencyRecorder recorder = new LatencyRecorder();
+	private volatile RunCost cost = new RunCost();
+	private volatile ProbeHistory history;
+	private volatile ResultLog resultLog;
+	private volatile Consumer<PingResult> listener;
+	private Predicate<PingResult> validator =
+		result -> result.responseCode >= 200 && result.responseCode < 400;
+	private Map<String, Long> deadlines = Collections.emptyMap();
+	private ResultSlots slots;
+	private List<String> parsedFor;
+	private URL[] parsed;
+
+	private static Method findVirtualThreadFactory() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			// Preview builds throw here, so prove it works once.
+			((ExecutorService) factory.invoke(null)).shutdown();
+			return factory;
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	/** The host of a URL, or the whole string if it does not parse. */
+	static String hostOf(String aURL) {
+		try {
+			return new URL(aURL).getHost();
+		} catch (MalformedURLException ex) {
+			return aURL;
+		}
+	}
+
+	// Probe urls through the reactive pipeline, reporting each result, until
+	// they run out or a positive deadlineMillis passes. Return the results
+	// reported.
+	private long probeReactively(Iterable<String> urls, long deadlineMillis) {
+		int numThreads = maxThreads; // flatMap never starts more than needed
+		ExecutorService executorService = newExecutor(numThreads);
+		Scheduler scheduler = Schedulers.from(executorService);
+		AtomicLong reported = new AtomicLong();
+		try {
+			Observable<PingResult> results = Observable.from(urls)
+				.flatMap(url -> Observable.defer(() -> {
+					try {
+						return Observable.just(pingAndReportStatus(url));
+					} catch (MalformedURLException ex) {
+						PingResult result = new PingResult();
+						result.url = url;
+						result.success = false;
+						result.timing = 0L;
+						return Observable.just(result);
+					}
+				}).subscribeOn(scheduler), numThreads);
+			if (deadlineMillis > 0) {
+				results = results.take(deadlineMillis, TimeUnit.MILLISECONDS);
+			}
+			results.toBlocking().forEach(result -> {
+				report(result);
+				reported.incrementAndGet();
+			});
+		} finally {
+			executorService.shutdownNow(); // always reclaim resources, even if the URLs fail
+		}
+		return reported.get();
+	}
+
+	// Probe url on a pool thread, telling the pool it may block.
+	private PingResult managedProbe(String url) {
+		BlockingProbe blocker = new BlockingProbe(url);
+		try {
+			ForkJoinPool.managedBlock(blocker);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		return blocker.result != null ? blocker.result : failedResult(url);
+	}
+
+	// The result, or if it failed and retries are left, the result of a retry.
+	private CompletableFuture<PingResult> retried(PingResult result, int retriesLeft,
+			ForkJoinPool pool, AtomicInteger retries) {
+		if (result.success || retriesLeft <= 0) {
+			return CompletableFuture.completedFuture(result);
+		}
+		retries.incrementAndGet();
+		return CompletableFuture.supplyAsync(() -> managedProbe(result.url), pool)
+			.thenCompose(retry -> retried(retry, retriesLeft - 1, pool, retries));
+	}
+
+	// Mark a successful result failed if the validator rejects it.
+	private PingResult validated(PingResult result) {
+		if (result.success && !validator.test(result)) {
+			result.success = false;
+		}
+		return result;
+	}
+
+	private static PingResult failedResult(String url) {
+		PingResult result = new PingResult();
+		result.url = url;
+		result.success = false;
+		return result;
+	}
+
+	// The targets as URLs, null where one does not parse. Kept while the
+	// targets list stays the same.
+	private URL[] parsedTargets() {
+		if (parsedFor != targets) {
+			parsed = new URL[targets.size()];
+			for (int id = 0; id < parsed.length; id++) {
+				try {
+					parsed[id] = new URL(targets.get(id));
+				} catch (MalformedURLException ex) {
+					parsed[id] = null;
+				}
+			}
+			parsedFor = targets;
+		}
+		return parsed;
+	}
+
 	// Insert N random breaks in String.
 	private String breakString( int prefix, int N, String original ) {
 		char [] chars = original.toCharArray();
@@ -219,63 +1335,444 @@ public final class ParallelSite {
 		System.out.println(String.valueOf(aMsg));
 	}
 
+	// Record the latency of one result, and log it.
+	private void report(PingResult result) {
+		recorder.record(result);
+		metrics.record(result);
+		ProbeHistory history = this.history;
+		if (history != null) {
+			history.record(result);
+		}
+		Consumer<PingResult> listener = this.listener;
+		if (listener != null) {
+			listener.accept(result);
+		}
+		ResultLog resultLog = this.resultLog;
+		if (resultLog != null) {
+			try {
+				resultLog.append(result);
+			} catch (IOException ex) {
+				log("Result log problem: " + ex);
+			}
+		}
+		if (!quiet) {
+			log(result);
+		}
+	}
+
+	// Begin timing a strategy run. Return its start time.
+	private long startRun() {
+		recorder = new LatencyRecorder();
+		cost = new RunCost();
+		return System.currentTimeMillis();
+	}
+
+	// Report latency percentiles, per URL and for the run, the duration
+	// and what the run cost.
+	private void endRun(long start) {
+		long duration = System.currentTimeMillis() - start;
+		recorder.setDurationMillis(duration);
+		cost.end();
+		recorder.setCost(cost);
+		metrics.endRun();
+		if (quiet) {
+			return;
+		}
+		for (Map.Entry<String, LatencyHistogram> entry : recorder.getPerUrl().entrySet()) {
+			log("   Latency: " + entry.getValue() + " " + entry.getKey());
+		}
+		for (Map.Entry<String, LatencyHistogram[]> entry : recorder.getPhasesPerHost().entrySet()) {
+			StringBuilder line = new StringBuilder("   Phases p50/p99:");
+			LatencyHistogram[] phases = entry.getValue();
+			for (int i = 0; i < phases.length; i++) {
+				line.append(' ').append(LatencyRecorder.PHASES[i]).append(' ')
+					.append(TimeUnit.NANOSECONDS.toMillis(phases[i].getPercentileNanos(0.50))).append('/')
+					.append(TimeUnit.NANOSECONDS.toMillis(phases[i].getPercentileNanos(0.99)));
+			}
+			log(line.append(" mS ").append(entry.getKey()));
+		}
+		log("Latency: " + recorder.getRun() + " failures=" + recorder.getFailures());
+		log("TLS: " + tlsSessions + ", redirects: " + redirects);
+		log("Duration: " + duration + " mS");
+		log("Cost: " + cost.toString(recorder.getProbes()));
+	}
+
+	/** A fork-join worker that adds its use to the run's cost as it ends. */
+	private final class AccountedWorker extends ForkJoinWorkerThread {
+		AccountedWorker(ForkJoinPool pool) {
+			super(pool);
+		}
+
+		@Override
+		protected void onTermination(Throwable exception) {
+			cost.threadEnded();
+			super.onTermination(exception);
+		}
+	}
+
+	/**
+	 * Probe targets by id until none are left, reusing one result and
+	 * buffer. A probe that throws is a failed probe, so every target is
+	 * counted down.
+	 */
+	private final class PooledWorker implements Runnable {
+		PooledWorker(URL[] urls, ResultSlots slots, AtomicInteger next, CountDownLatch finished) {
+			this.urls = urls;
+			this.slots = slots;
+			this.next = next;
+			this.finished = finished;
+		}
+
+		@Override
+		public void run() {
+			int id;
+			while (!Thread.currentThread().isInterrupted() && (id = next.getAndIncrement()) < urls.length) {
+				result.clear();
+				if (urls[id] != null) {
+					try {
+						probe(urls[id], result, null, buffer);
+					} catch (RuntimeException ex) {
+						result.success = false;
+					}
+				}
+				slots.set(id, result); // a URL that does not parse is a failed probe
+				finished.countDown();
+			}
+		}
+
+		private final URL[] urls;
+		private final ResultSlots slots;
+		private final AtomicInteger next;
+		private final CountDownLatch finished;
+		private final PingResult result = new PingResult();
+		private final byte[] buffer = new byte[BUFFER_BYTES];
+	}
+
+	/** A probe run through ForkJoinPool.managedBlock. */
+	private final class BlockingProbe implements ForkJoinPool.ManagedBlocker {
+		BlockingProbe(String aURL) {
+			fURL = aURL;
+		}
+
+		@Override
+		public boolean block() {
+			try {
+				result = new Task(fURL).call();
+			} catch (Exception ex) {
+				result = failedResult(fURL);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return result != null;
+		}
+
+		private final String fURL;
+		private volatile PingResult result;
+	}
+
 	/** Try to ping a URL. Return true if successful. */
 	private final class Task implements Callable<PingResult> {
 		Task(String aURL) {
+			this(aURL, null);
+		}
+
+		/** A task whose open connection is kept in inFlight, so it can be aborted. */
+		Task(String aURL, Set<HttpURLConnection> inFlight) {
 			fURL = aURL;
+			fInFlight = inFlight;
 		}
 
-		/** Access a URL, and see if you get a healthy response. */
+		/** 
+		 * Access a URL, and see if you get a healthy response. 
+		 * A URL that does not parse is a failed probe, not a failed task.
+		 */
 		@Override
 		public PingResult call() throws Exception {
-			return pingAndReportStatus(fURL);
+			try {
+				return pingAndReportStatus(fURL, fInFlight);
+			} catch (MalformedURLException ex) {
+				PingResult result = new PingResult();
+				result.url = fURL;
+				result.success = false;
+				result.timing = 0L;
+				return result;
+			}
 		}
 
 		private final String fURL;
+		private final Set<HttpURLConnection> fInFlight;
 	}
 
 	
 	/** Open connection to given URL. Return Result. */
 	private PingResult pingAndReportStatus(String aURL)
 			throws MalformedURLException {
+		return pingAndReportStatus(aURL, null);
+	}
+
+	/** 
+	 * Open connection to given URL. Return Result. 
+	 * The host name is resolved first, through the DNS cache, and that time
+	 * is reported apart from the request time.
+	 * While open, the connection is kept in inFlight, if given, so another
+	 * thread can abort it.
+	 */
+	private PingResult pingAndReportStatus(String aURL, Set<HttpURLConnection> inFlight)
+			throws MalformedURLException {
 		PingResult result = new PingResult();
 		result.url = aURL;
-		long start = System.currentTimeMillis();
 		URL url = new URL(aURL);
+		byte[] buffer = BUFFERS.poll();
+		if (buffer == null) {
+			buffer = new byte[BUFFER_BYTES];
+		}
 		try {
-			URLConnection connection = url.openConnection();
-			HttpURLConnection httpConnection = (HttpURLConnection) connection;
-			httpConnection.setRequestMethod("GET");
-			int responseCode = httpConnection.getResponseCode();
-			// log( "   response code=" + responseCode );
-			// int FIRST_LINE = 0;
-			// log( "   content length=" + connection.getContentLength());
-			// String firstLine = connection.getHeaderField(FIRST_LINE);
-			if ( responseCode < 500 ) {
-				result.success = true;
-			} else {
+			probe(url, result, inFlight, buffer);
+		} finally {
+			BUFFERS.offer(buffer); // dropped if the pool is full
+		}
+		return result;
+	}
+
+	/**
+	 * Probe url, filling in result, which must be new or cleared. Reads the
+	 * body through buffer, so a caller probing again and again can reuse
+	 * both.
+	 */
+	private void probe(URL url, PingResult result, Set<HttpURLConnection> inFlight, byte[] buffer) {
+		String host = url.getHost();
+		metrics.probeStarted(host);
+		try {
+			timeProbe(url, result, inFlight, buffer);
+		} finally {
+			metrics.probeFinished(host);
+		}
+	}
+
+	// Probe url, as probe, without counting it in flight.
+	private void timeProbe(URL url, PingResult result, Set<HttpURLConnection> inFlight, byte[] buffer) {
+		URL target = redirects.resolve(url);
+		long dnsStart = System.nanoTime();
+		InetAddress[] addresses;
+		try {
+			addresses = dnsCache.resolve(target.getHost());
+		} catch (UnknownHostException ex) {
+			result.success = false;
+			result.dnsNanos = System.nanoTime() - dnsStart;
+			result.dnsTiming = TimeUnit.NANOSECONDS.toMillis(result.dnsNanos);
+			result.timing = 0L;
+			return;
+		}
+		long start = System.nanoTime();
+		result.dnsNanos = start - dnsStart;
+		result.dnsTiming = TimeUnit.NANOSECONDS.toMillis(result.dnsNanos);
+		if (phaseTiming) {
+			try {
+				new PhasedProbe(connectTimeoutMillis, readTimeoutMillis, headProbes, bodyLimit,
+					tlsSessions.getSocketFactory()).probe(target, addresses[0], result, buffer);
+				result.success = result.responseCode < 500;
+			} catch (IOException ex) {
 				result.success = false;
 			}
+			result.timing = TimeUnit.NANOSECONDS.toMillis(result.timingNanos);
+			return;
+		}
+		HttpURLConnection httpConnection = null;
+		try {
+			for (int hop = 0; ; hop++) {
+				httpConnection = openConnection(target, inFlight);
+				int responseCode = httpConnection.getResponseCode();
+				String location = httpConnection.getHeaderField("Location");
+				if (RedirectMemo.isRedirect(responseCode) && location != null
+						&& hop < RedirectMemo.MAX_REDIRECTS) {
+					// Follow by hand: the JDK will not follow http to https.
+					URL next = new URL(target, location);
+					if (RedirectMemo.isPermanent(responseCode)) {
+						redirects.remember(target, next);
+					}
+					consumeBody(httpConnection, responseCode, buffer, null);
+					if (inFlight != null) {
+						inFlight.remove(httpConnection);
+					}
+					result.redirects++;
+					target = next;
+					continue;
+				}
+				result.responseCode = responseCode;
+				// log( "   response code=" + responseCode );
+				// int FIRST_LINE = 0;
+				// log( "   content length=" + connection.getContentLength());
+				// String firstLine = connection.getHeaderField(FIRST_LINE);
+				if ( responseCode < 500 ) {
+					result.success = true;
+				} else {
+					result.success = false;
+				}
+				consumeBody(httpConnection, responseCode, buffer, result);
+				if (result.content != null && result.content != ContentCheck.Verdict.PASSED) {
+					result.success = false;
+				}
+				break;
+			}
 		} catch (Exception ex) {
 			// ignore - fails
 			result.success = false;
 			// log( "   Exception: " + url + " " + ex);		
+		} finally {
+			if (inFlight != null && httpConnection != null) {
+				inFlight.remove(httpConnection);
+			}
 		}
-		long end = System.currentTimeMillis();
-		result.timing = end - start;
-		return result;
+		result.timingNanos = System.nanoTime() - start;
+		result.timing = TimeUnit.NANOSECONDS.toMillis(result.timingNanos);
+	}
+
+	/**
+	 * Open a connection to url, set up for one probe: time-outs, method,
+	 * no automatic redirects, and the shared TLS sessions. While open, the
+	 * connection is kept in inFlight, if given.
+	 */
+	private HttpURLConnection openConnection(URL url, Set<HttpURLConnection> inFlight)
+			throws IOException, InterruptedException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		if (inFlight != null) {
+			inFlight.add(connection);
+			if (Thread.currentThread().isInterrupted()) {
+				throw new InterruptedException("cancelled before connect");
+			}
+		}
+		if (connection instanceof HttpsURLConnection) {
+			((HttpsURLConnection) connection).setSSLSocketFactory(tlsSessions.getSocketFactory());
+		}
+		connection.setInstanceFollowRedirects(false);
+		connection.setConnectTimeout(connectTimeoutMillis);
+		connection.setReadTimeout(readTimeoutMillis);
+		connection.setRequestMethod(headProbes ? "HEAD" : "GET");
+		return connection;
+	}
+
+	/**
+	 * Read and close the response body. Closing a body that was read to
+	 * the end returns the socket to the JDK keep-alive pool for its host.
+	 * A body cut short at bodyLimit is abandoned with its socket.
+	 * Given a result, and with a content check set, the body is checked
+	 * instead, and the verdict kept in the result.
+	 */
+	private void consumeBody(HttpURLConnection connection, int responseCode, byte[] buffer,
+			PingResult checked) throws IOException {
+		InputStream body = responseCode < 400 ? connection.getInputStream()
+			: connection.getErrorStream();
+		if (body == null) {
+			return; // HEAD, or nothing sent
+		}
+		ContentCheck contentCheck = this.contentCheck;
+		if (checked != null && contentCheck != null && responseCode < 400 && !headProbes) {
+			try {
+				checked.content = checkBody(connection, body, contentCheck.newScan(), buffer);
+			} finally {
+				body.close();
+			}
+			return;
+		}
+		try {
+			long remaining = bodyLimit;
+			int count;
+			while (remaining > 0 && 
+				(count = body.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+				remaining -= count;
+			}
+			// A body of exactly bodyLimit bytes ends here, and keeps its connection.
+			if (remaining <= 0 && body.read() >= 0) {
+				connection.disconnect();
+			}
+		} finally {
+			body.close();
+		}
+	}
+
+	/**
+	 * Read body through buffer only until scan is decided. Drop the
+	 * connection if that is before the end. Return the verdict.
+	 */
+	private static ContentCheck.Verdict checkBody(HttpURLConnection connection, InputStream body,
+			ContentCheck.Scan scan, byte[] buffer) throws IOException {
+		ContentCheck.Verdict verdict = scan.begin(connection.getContentLengthLong());
+		int count;
+		while (verdict == null && (count = body.read(buffer)) >= 0) {
+			verdict = scan.update(buffer, 0, count);
+		}
+		if (verdict == null) {
+			return scan.finish();
+		}
+		connection.disconnect();
+		return verdict;
 	}
 
 	/** Simple struct to hold all the data related to a ping. */
-	private static final class PingResult {
+	static final class PingResult {
 		String url;
-		Boolean success;
-		Long timing;
+		boolean success;
+		long timing;
+		/** The request time behind timing, from System.nanoTime. */
+		long timingNanos;
+		long dnsTiming;
+		int responseCode;
+		/** True when the phase times below were measured. */
+		boolean phased;
+		long dnsNanos;
+		long connectNanos;
+		long tlsNanos;
+		long firstByteNanos;
+		long bodyNanos;
+		/** How long after its intended send time an open-loop probe started. */
+		long lateNanos;
+		/** Redirects followed to reach the final answer. */
+		int redirects;
+		/** Verdict of the content check, or null if not checked. */
+		ContentCheck.Verdict content;
+
+		/** Reset every field, so this result can hold another probe. */
+		void clear() {
+			url = null;
+			success = false;
+			timing = 0;
+			timingNanos = 0;
+			dnsTiming = 0;
+			responseCode = 0;
+			phased = false;
+			dnsNanos = 0;
+			connectNanos = 0;
+			tlsNanos = 0;
+			firstByteNanos = 0;
+			bodyNanos = 0;
+			lateNanos = 0;
+			redirects = 0;
+			content = null;
+		}
 
 		@Override
 		public String toString() {
-			return "   Result:" + success + " " + timing + " msecs " + url;
+			String text = "   Result:" + success + " " + timing + " msecs dns " + dnsTiming + " msecs " + url;
+			if (phased) {
+				text += " [connect " + TimeUnit.NANOSECONDS.toMillis(connectNanos)
+					+ " tls " + TimeUnit.NANOSECONDS.toMillis(tlsNanos)
+					+ " first byte " + TimeUnit.NANOSECONDS.toMillis(firstByteNanos)
+					+ " body " + TimeUnit.NANOSECONDS.toMillis(bodyNanos) + " msecs]";
+			}
+			if (redirects > 0) {
+				text += " [" + redirects + " redirects]";
+			}
+			if (content != null && content != ContentCheck.Verdict.PASSED) {
+				text += " [content " + content + "]";
+			}
+			if (lateNanos >= OpenLoopGenerator.LATE_NANOS) {
+				text += " [sent " + TimeUnit.NANOSECONDS.toMillis(lateNanos) + " msecs late]";
+			}
+			return text;
 		}
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,154 @@
+package com.example;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * A probe that times each phase of a request: TCP connect, TLS handshake,
+ * time to first byte, and body transfer.
+ * <p>
+ * HttpURLConnection hides its phases, so this probe speaks HTTP/1.1 over
+ * its own socket. Each probe uses a new connection with
+ * "Connection: close", since a reused connection has no connect or
+ * handshake to time, though a TLS session cached by the socket factory
+ * is resumed. The address is passed in, already resolved, so name
+ * resolution is timed by the caller. Redirects are not followed.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class PhasedProbe {
+
+	/** A probe whose TLS connections come from sslSocketFactory, for its session cache. */
+	public PhasedProbe(int connectTimeoutMillis, int readTimeoutMillis,
+			boolean headProbes, long bodyLimit, SSLSocketFactory sslSocketFactory) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.headProbes = headProbes;
+		this.bodyLimit = bodyLimit;
+		this.sslSocketFactory = sslSocketFactory;
+	}
+
+	/**
+	 * Probe url at address, filling in the response code and phase times.
+	 * Reads the body through buffer, so a caller can reuse one.
+	 */
+	public void probe(URL url, InetAddress address, PingResult result, byte[] buffer)
+			throws IOException {
+		boolean secure = "https".equalsIgnoreCase(url.getProtocol());
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		long start = System.nanoTime();
+		// A channel's socket, so interrupting this thread aborts a connect or read.
+		try (Socket socket = SocketChannel.open().socket()) {
+			socket.connect(new InetSocketAddress(address, port), connectTimeoutMillis);
+			socket.setSoTimeout(readTimeoutMillis);
+			long connected = System.nanoTime();
+			result.connectNanos = connected - start;
+
+			Socket channel = socket;
+			if (secure) {
+				SSLSocket ssl = (SSLSocket) sslSocketFactory.createSocket(
+					socket, url.getHost(), port, true);
+				SSLParameters parameters = ssl.getSSLParameters();
+				parameters.setEndpointIdentificationAlgorithm("HTTPS");
+				ssl.setSSLParameters(parameters);
+				ssl.startHandshake();
+				channel = ssl;
+			}
+			long handshaken = System.nanoTime();
+			result.tlsNanos = handshaken - connected;
+
+			String path = url.getFile().isEmpty() ? "/" : url.getFile();
+			String request = (headProbes ? "HEAD " : "GET ") + path + " HTTP/1.1\r\n"
+				+ "Host: " + url.getHost() + (url.getPort() < 0 ? "" : ":" + port) + "\r\n"
+				+ "Connection: close\r\n\r\n";
+			OutputStream out = channel.getOutputStream();
+			out.write(request.getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			InputStream in = new BufferedInputStream(channel.getInputStream());
+			int first = in.read();
+			long firstByte = System.nanoTime();
+			result.firstByteNanos = firstByte - handshaken;
+			if (first < 0) {
+				throw new IOException("connection closed before response");
+			}
+
+			String statusLine = (char) first + readLine(in);
+			result.responseCode = parseStatus(statusLine);
+			long contentLength = -1;
+			String header;
+			while (!(header = readLine(in)).isEmpty()) {
+				String lower = header.toLowerCase(Locale.ROOT);
+				if (lower.startsWith("content-length:")) {
+					contentLength = parseLength(header.substring(15).trim());
+				}
+			}
+			if (!headProbes) {
+				long remaining = contentLength < 0 ? bodyLimit : Math.min(contentLength, bodyLimit);
+				int count;
+				while (remaining > 0 &&
+					(count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+					remaining -= count;
+				}
+			}
+			result.bodyNanos = System.nanoTime() - firstByte;
+			result.phased = true;
+		} finally {
+			result.timingNanos = System.nanoTime() - start;
+		}
+	}
+
+	// PRIVATE
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+	private final boolean headProbes;
+	private final long bodyLimit;
+	private final SSLSocketFactory sslSocketFactory;
+
+	// Read up to LF, dropping CR LF. Header lines are ASCII.
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) >= 0 && b != '\n') {
+			if (b != '\r') {
+				line.append((char) b);
+			}
+		}
+		return line.toString();
+	}
+
+	// A bad or negative length is treated as unknown.
+	private static long parseLength(String value) {
+		try {
+			return Math.max(-1, Long.parseLong(value));
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	private static int parseStatus(String statusLine) throws IOException {
+		String[] parts = statusLine.split(" ");
+		if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+			throw new IOException("bad status line: " + statusLine);
+		}
+		try {
+			return Integer.parseInt(parts[1]);
+		} catch (NumberFormatException ex) {
+			throw new IOException("bad status line: " + statusLine);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Politeness scheduler. Releases work at a bounded rate per host and
+ * overall, taking hosts in turn so one busy origin cannot crowd out the
+ * rest.
+ * <p>
+ * Each host has a token bucket of hostRate tokens per second holding at
+ * most hostBurst. A global bucket caps the total rate. A single dispatcher
+ * thread wakes every TICK_MILLIS, visits the hosts with waiting work
+ * round-robin, and releases one item per host while tokens last. Released
+ * work should only hand off to an executor; it runs on the dispatcher.
+ * Workers never wait for tokens.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class PoliteScheduler {
+	/** Interval between dispatch passes. */
+	public static final long TICK_MILLIS = 5;
+
+	public PoliteScheduler(double globalRate, double hostRate, int hostBurst) {
+		this.hostRate = hostRate;
+		this.hostBurst = hostBurst;
+		this.global = new TokenBucket(globalRate, Math.max(1, (int) (globalRate * TICK_MILLIS / 1000)));
+		dispatcher.scheduleWithFixedDelay(this::dispatch, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/** Queue work for a host. It is released when the host and the global rates allow. */
+	public synchronized void submit(String host, Runnable release) {
+		HostQueue hostQueue = hosts.get(host);
+		if (hostQueue == null) {
+			hostQueue = new HostQueue();
+			hosts.put(host, hostQueue);
+		}
+		if (hostQueue.pending.isEmpty()) {
+			ready.add(hostQueue);
+		}
+		hostQueue.pending.add(release);
+		waiting++;
+	}
+
+	/** Items submitted but not yet released. */
+	public synchronized int getWaiting() {
+		return waiting;
+	}
+
+	/** Hosts with work waiting. */
+	public synchronized int getWaitingHosts() {
+		return ready.size();
+	}
+
+	/** Stop the dispatcher. Work still waiting is dropped. */
+	public void shutdown() {
+		dispatcher.shutdownNow();
+	}
+
+	// PRIVATE
+	private final double hostRate;
+	private final int hostBurst;
+	private final TokenBucket global;
+	private final Map<String, HostQueue> hosts = new HashMap<>();
+	// Hosts with waiting work, in turn order.
+	private final Queue<HostQueue> ready = new ArrayDeque<>();
+	private int waiting;
+	private final ScheduledExecutorService dispatcher =
+		Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "PoliteScheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+	// One dispatch pass: at most one release per host per turn.
+	private synchronized void dispatch() {
+		long now = System.nanoTime();
+		global.refill(now);
+		boolean released = true;
+		while (released && global.tokens >= 1 && !ready.isEmpty()) {
+			released = false;
+			for (int turns = ready.size(); turns > 0 && global.tokens >= 1; turns--) {
+				HostQueue hostQueue = ready.poll();
+				hostQueue.bucket.refill(now);
+				if (hostQueue.bucket.tokens >= 1) {
+					hostQueue.bucket.tokens--;
+					global.tokens--;
+					waiting--;
+					released = true;
+					try {
+						hostQueue.pending.poll().run();
+					} catch (RuntimeException ex) {
+						// the release hand-off failed, e.g. executor shut down
+					}
+				}
+				if (!hostQueue.pending.isEmpty()) {
+					ready.add(hostQueue);
+				}
+			}
+		}
+		// Forget idle hosts whose buckets are full again.
+		for (Iterator<HostQueue> it = hosts.values().iterator(); it.hasNext();) {
+			HostQueue hostQueue = it.next();
+			if (hostQueue.pending.isEmpty()) {
+				hostQueue.bucket.refill(now);
+				if (hostQueue.bucket.tokens >= hostQueue.bucket.capacity) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/** Work waiting for one host, and its rate. */
+	private final class HostQueue {
+		final TokenBucket bucket = new TokenBucket(hostRate, hostBurst);
+		final Queue<Runnable> pending = new ArrayDeque<>();
+	}
+
+	/** Tokens accrue at rate per second, up to capacity. Starts full. */
+	private static final class TokenBucket {
+		TokenBucket(double rate, int capacity) {
+			this.rate = rate;
+			this.capacity = capacity;
+			this.tokens = capacity;
+			this.lastRefill = System.nanoTime();
+		}
+
+		void refill(long now) {
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1e9);
+			lastRefill = now;
+		}
+
+		final double rate;
+		final int capacity;
+		double tokens;
+		long lastRefill;
+	}
+}
@@ -0,0 +1,182 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline benchmark of the probe strategies against an in-process
+ * StubServer, so no network is needed and results are repeatable.
+ * <p>
+ * Each strategy probes the same targets at each concurrency level, and one
+ * row is reported per run: throughput, latency percentiles and failures.
+ * The sequential strategy ignores concurrency, so it runs at the first
+ * level only. The polite strategy is left out; it is slow by design.
+ * <p>
+ * Given rates, an open-loop run is also made at each rate, in probes per
+ * second. Its latencies count from each probe's intended send time, so
+ * they show the queueing a closed loop hides once the rate nears capacity.
+ * <p>
+ * Settings, as -D properties:
+ * targets=N, latency=spec (see StubServer.Latency), errorRate=fraction,
+ * serverErrorRate=fraction, bodyBytes=N, levels=1,4,16,64,
+ * rates=50,200 (none by default), openLoopDuration=mS.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ProbeBenchmark {
+	/** Default number of target URLs. */
+	public static final int TARGETS = 200;
+	/** Default latency distribution of the stub server. */
+	public static final String LATENCY = "exp:20";
+	/** Default fraction of requests answered by dropping the connection. */
+	public static final double ERROR_RATE = 0.01;
+	/** Default fraction of requests answered with 503. */
+	public static final double SERVER_ERROR_RATE = 0.02;
+	/** Default response body size. */
+	public static final int BODY_BYTES = 2048;
+	/** Default concurrency levels. */
+	public static final String LEVELS = "1,4,16,64";
+	/** Worker processes of the sharded strategy, each with the level's threads. */
+	public static final int SHARDS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	/** Deadline of the critical tenth of targets in the deadline strategy, in mS. */
+	public static final long CRITICAL_MILLIS = 250;
+	/** Default length of each open-loop run, in mS. */
+	public static final long OPEN_LOOP_MILLIS = 5000;
+
+	/** One strategy run, against the checker's targets. */
+	interface Strategy {
+		void run(ParallelSite checker, List<String> targets) throws Exception;
+	}
+
+	/** Run this tool. */
+	public static final void main(String... aArgs) throws Exception {
+		List<Integer> levels = new ArrayList<>();
+		for (String level : System.getProperty("levels", LEVELS).split(",")) {
+			levels.add(Integer.parseInt(level.trim()));
+		}
+		int maxLevel = 0;
+		for (int level : levels) {
+			maxLevel = Math.max(maxLevel, level);
+		}
+		// Let every probe thread keep its connection to the one stub host.
+		ParallelSite.setDefaultMaxConnections(maxLevel);
+		StubServer.configureDefaults();
+
+		StubServer server = new StubServer(
+			StubServer.Latency.parse(System.getProperty("latency", LATENCY)),
+			Double.parseDouble(System.getProperty("errorRate", String.valueOf(ERROR_RATE))),
+			Double.parseDouble(System.getProperty("serverErrorRate", String.valueOf(SERVER_ERROR_RATE))),
+			Integer.getInteger("bodyBytes", BODY_BYTES));
+		String base = server.start();
+		List<String> targets = new ArrayList<>();
+		for (int i = 0; i < Integer.getInteger("targets", TARGETS); i++) {
+			targets.add(base + "/target" + i);
+		}
+
+		ParallelSite checker = new ParallelSite();
+		checker.setVirtualThreads(Boolean.getBoolean("virtualThreads"));
+		checker.setHeadProbes(Boolean.getBoolean("headProbes"));
+		checker.setTargets(targets);
+		checker.setQuiet(true);
+		log("Stub server: " + server);
+		log("Targets: " + targets.size() + ", executor: " + checker.executorDescription());
+
+		Map<String, Strategy> strategies = strategies();
+		log("Warm-up...");
+		checker.setConcurrency(maxLevel, maxLevel);
+		strategies.get("eachWhenKnown").run(checker, targets);
+
+		log(String.format("%-16s %6s %10s %9s %9s %9s %9s %8s %9s %8s %4s",
+			"strategy", "level", "probes/s", "p50 mS", "p99 mS", "p99.9 mS", "max mS", "failures",
+			"cpu uS/p", "KB/p", "gcs"));
+		for (int level : levels) {
+			checker.setConcurrency(level, level);
+			for (Map.Entry<String, Strategy> entry : strategies.entrySet()) {
+				if (entry.getKey().equals("sequential") && level != levels.get(0)) {
+					continue;
+				}
+				try {
+					entry.getValue().run(checker, targets);
+					log(row(entry.getKey(), level, checker.getLatencies()));
+				} catch (Exception ex) {
+					log(String.format("%-16s %6d aborted: %s", entry.getKey(), level, ex));
+				}
+			}
+		}
+		String rates = System.getProperty("rates", "");
+		if (!rates.isEmpty()) {
+			long duration = Long.getLong("openLoopDuration", OPEN_LOOP_MILLIS);
+			checker.setConcurrency(maxLevel, ParallelSite.MAX_IN_FLIGHT);
+			log(String.format("%-16s %6s %10s %9s %9s %9s %9s %8s %9s %8s %4s",
+				"open loop", "rate", "probes/s", "p50 mS", "p99 mS", "p99.9 mS", "max mS", "failures",
+				"cpu uS/p", "KB/p", "gcs"));
+			for (String rate : rates.split(",")) {
+				double perSecond = Double.parseDouble(rate.trim());
+				try {
+					checker.pingAndReportOpenLoop(perSecond, duration);
+					log(row("openLoop", (int) perSecond, checker.getLatencies()));
+				} catch (Exception ex) {
+					log(String.format("%-16s %6d aborted: %s", "openLoop", (int) perSecond, ex));
+				}
+			}
+		}
+		server.stop();
+		log("Requests served: " + server.getRequests());
+		log("Done.");
+	}
+
+	// PRIVATE
+	private static Map<String, Strategy> strategies() {
+		Map<String, Strategy> strategies = new LinkedHashMap<>();
+		strategies.put("eachWhenKnown", (checker, targets) -> checker.pingAndReportEachWhenKnown());
+		strategies.put("allAtEnd", (checker, targets) -> checker.pingAndReportAllAtEnd());
+		strategies.put("sequential", (checker, targets) -> checker.pingAndReportSequentially());
+		strategies.put("terminateOnFail",
+			(checker, targets) -> checker.pingAndReportEachWhenKnownTerminateOnFail());
+		strategies.put("nonBlocking", (checker, targets) -> checker.pingAndReportNonBlocking());
+		strategies.put("hedged", (checker, targets) -> checker.pingAndReportHedged());
+		strategies.put("adaptive", (checker, targets) -> checker.pingAndReportAdaptive());
+		strategies.put("reactive", (checker, targets) -> checker.pingAndReportReactive(targets));
+		strategies.put("withPrefetch", (checker, targets) -> checker.pingAndReportWithPrefetch());
+		strategies.put("pooled", (checker, targets) -> checker.pingAndReportPooled());
+		strategies.put("completable", (checker, targets) -> checker.pingAndReportCompletable());
+		strategies.put("byDeadline", (checker, targets) -> {
+			checker.setDeadlines(deadlines(targets));
+			checker.pingAndReportByDeadline();
+		});
+		strategies.put("sharded", (checker, targets) -> checker.pingAndReportSharded(SHARDS));
+		return strategies;
+	}
+
+	// Every tenth target is critical, due in CRITICAL_MILLIS.
+	private static Map<String, Long> deadlines(List<String> targets) {
+		Map<String, Long> deadlines = new HashMap<>();
+		for (int i = 0; i < targets.size(); i += 10) {
+			deadlines.put(targets.get(i), CRITICAL_MILLIS);
+		}
+		return deadlines;
+	}
+
+	// Cost columns are per probe; -1 where the JVM does not report them.
+	private static String row(String name, int level, LatencyRecorder latencies) {
+		LatencyHistogram run = latencies.getRun();
+		double seconds = Math.max(1, latencies.getDurationMillis()) / 1000.0;
+		long probes = Math.max(1, latencies.getProbes());
+		RunCost cost = latencies.getCost();
+		return String.format("%-16s %6d %10.1f %9.3f %9.3f %9.3f %9.3f %8d %9d %8.1f %4d",
+			name, level, latencies.getProbes() / seconds,
+			run.getPercentileNanos(0.50) / 1e6, run.getPercentileNanos(0.99) / 1e6,
+			run.getPercentileNanos(0.999) / 1e6, run.getMaxNanos() / 1e6,
+			latencies.getFailures(),
+			cost.getCpuNanos() < 0 ? -1 : cost.getCpuNanos() / probes / 1000,
+			cost.getAllocatedBytes() < 0 ? -1 : cost.getAllocatedBytes() / (double) probes / 1024,
+			cost.getGcCount());
+	}
+
+	private static void log(Object aMsg) {
+		System.out.println(String.valueOf(aMsg));
+	}
+}
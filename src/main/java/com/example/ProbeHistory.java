@@ -0,0 +1,234 @@
+package com.example;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Probe history per URL, in bounded memory: the most recent results, and
+ * rollups of every result by minute and by hour.
+ * <p>
+ * Each URL has three rings, each kept as parallel primitive arrays rather
+ * than an array of objects: recent samples (time, response code, success,
+ * latency), minute rollups and hour rollups (count, failures, total and
+ * maximum latency). A result is added to its minute and hour rollups as it
+ * is recorded, so rollups are always current. As in LatencyRecorder, a
+ * failed probe is only counted: its latency is not in the total or the
+ * maximum, so total / (count - failures) is the mean success latency. A slot left over from an
+ * earlier turn of its ring is cleared when its period comes round again.
+ * <p>
+ * Memory is fixed at about getBytesPerUrl per URL, for at most maxUrls
+ * URLs. With the defaults that is about 3 KB per URL, or some 300 MB for
+ * 100,000 URLs, holding two days of hourly history.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ProbeHistory {
+	/** Default number of recent samples kept per URL. */
+	public static final int SAMPLES = 32;
+	/** Default number of minute rollups kept per URL, one hour. */
+	public static final int MINUTES = 60;
+	/** Default number of hour rollups kept per URL, two days. */
+	public static final int HOURS = 48;
+	/** Default most URLs given a history. */
+	public static final int MAX_URLS = 100000;
+
+	/** Receives samples, oldest first, without boxing. */
+	public interface SampleVisitor {
+		void sample(long timeMillis, int responseCode, boolean success, long latencyMicros);
+	}
+
+	/**
+	 * Receives rollups, oldest first. Latencies are in microseconds, of the
+	 * count - failures successful probes only.
+	 */
+	public interface RollupVisitor {
+		void rollup(long startMillis, int count, int failures, long totalMicros, long maxMicros);
+	}
+
+	public ProbeHistory() {
+		this(SAMPLES, MINUTES, HOURS, MAX_URLS);
+	}
+
+	public ProbeHistory(int samples, int minutes, int hours, int maxUrls) {
+		this.samples = samples;
+		this.minutes = minutes;
+		this.hours = hours;
+		this.maxUrls = maxUrls;
+	}
+
+	/** Add a result, timed now. */
+	public void record(PingResult result) {
+		record(result, System.currentTimeMillis());
+	}
+
+	/** Add a result, timed at timeMillis. Ignored once maxUrls URLs are kept. */
+	public void record(PingResult result, long timeMillis) {
+		Series series = this.series.get(result.url);
+		if (series == null) {
+			if (this.series.size() >= maxUrls) {
+				return;
+			}
+			Series created = new Series(samples, minutes, hours);
+			series = this.series.putIfAbsent(result.url, created);
+			if (series == null) {
+				series = created;
+			}
+		}
+		series.record(timeMillis, result.responseCode, result.success,
+			TimeUnit.NANOSECONDS.toMicros(result.timingNanos));
+	}
+
+	/** Visit the recent samples of url, oldest first. */
+	public void forEachSample(String url, SampleVisitor visitor) {
+		Series series = this.series.get(url);
+		if (series != null) {
+			series.forEachSample(visitor);
+		}
+	}
+
+	/** Visit the minute rollups of url, oldest first. */
+	public void forEachMinute(String url, RollupVisitor visitor) {
+		Series series = this.series.get(url);
+		if (series != null) {
+			series.forEachMinute(visitor);
+		}
+	}
+
+	/** Visit the hour rollups of url, oldest first. */
+	public void forEachHour(String url, RollupVisitor visitor) {
+		Series series = this.series.get(url);
+		if (series != null) {
+			series.forEachHour(visitor);
+		}
+	}
+
+	/** Number of URLs with a history. */
+	public int getUrls() {
+		return series.size();
+	}
+
+	/** Approximate heap used by the history of one URL. */
+	public long getBytesPerUrl() {
+		// time 8, latency 4, code 2, success 1; rollup period 4, count 4,
+		// failures 4, total 8, max 4; plus array and object headers.
+		return samples * 15L + (minutes + hours) * 24L + 200;
+	}
+
+	@Override
+	public String toString() {
+		return "urls=" + getUrls() + " samples=" + samples + " minutes=" + minutes + " hours=" + hours
+			+ " heap~" + getUrls() * getBytesPerUrl() / 1024 + " KB";
+	}
+
+	// PRIVATE
+	private final int samples;
+	private final int minutes;
+	private final int hours;
+	private final int maxUrls;
+	private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+
+	// The rings of one URL. Updates and visits lock the series.
+	private static final class Series {
+		Series(int samples, int minutes, int hours) {
+			times = new long[samples];
+			latencies = new int[samples];
+			codes = new short[samples];
+			successes = new boolean[samples];
+			this.minutes = new Rollups(minutes, TimeUnit.MINUTES.toMillis(1));
+			this.hours = new Rollups(hours, TimeUnit.HOURS.toMillis(1));
+		}
+
+		synchronized void record(long timeMillis, int responseCode, boolean success, long latencyMicros) {
+			int slot = (int) (next % times.length);
+			times[slot] = timeMillis;
+			latencies[slot] = (int) Math.min(Integer.MAX_VALUE, latencyMicros);
+			codes[slot] = (short) responseCode;
+			successes[slot] = success;
+			next++;
+			minutes.add(timeMillis, success, latencyMicros);
+			hours.add(timeMillis, success, latencyMicros);
+		}
+
+		synchronized void forEachSample(SampleVisitor visitor) {
+			for (long i = Math.max(0, next - times.length); i < next; i++) {
+				int slot = (int) (i % times.length);
+				visitor.sample(times[slot], codes[slot], successes[slot], latencies[slot]);
+			}
+		}
+
+		synchronized void forEachMinute(RollupVisitor visitor) {
+			minutes.forEach(visitor);
+		}
+
+		synchronized void forEachHour(RollupVisitor visitor) {
+			hours.forEach(visitor);
+		}
+
+		final long[] times;
+		final int[] latencies;
+		final short[] codes;
+		final boolean[] successes;
+		final Rollups minutes;
+		final Rollups hours;
+		long next;
+	}
+
+	// One ring of rollups. Slot i holds period number periods[i], where a
+	// period number is the time divided by the period length.
+	private static final class Rollups {
+		Rollups(int size, long periodMillis) {
+			this.periodMillis = periodMillis;
+			periods = new int[size];
+			counts = new int[size];
+			failures = new int[size];
+			totals = new long[size];
+			maxima = new int[size];
+		}
+
+		// Called with the series locked.
+		void add(long timeMillis, boolean success, long latencyMicros) {
+			int period = (int) (timeMillis / periodMillis);
+			if (period <= latest - periods.length) {
+				return; // too old for this ring
+			}
+			int slot = period % periods.length;
+			if (periods[slot] != period) {
+				periods[slot] = period;
+				counts[slot] = 0;
+				failures[slot] = 0;
+				totals[slot] = 0;
+				maxima[slot] = 0;
+			}
+			counts[slot]++;
+			if (success) {
+				totals[slot] += latencyMicros;
+				maxima[slot] = (int) Math.max(maxima[slot], Math.min(Integer.MAX_VALUE, latencyMicros));
+			} else {
+				failures[slot]++;
+			}
+			latest = Math.max(latest, period);
+		}
+
+		// Called with the series locked.
+		void forEach(RollupVisitor visitor) {
+			for (int period = latest - periods.length + 1; period <= latest; period++) {
+				int slot = Math.floorMod(period, periods.length);
+				if (period >= 0 && periods[slot] == period && counts[slot] > 0) {
+					visitor.rollup(period * periodMillis, counts[slot], failures[slot],
+						totals[slot], maxima[slot]);
+				}
+			}
+		}
+
+		final long periodMillis;
+		final int[] periods;
+		final int[] counts;
+		final int[] failures;
+		final long[] totals;
+		final int[] maxima;
+		int latest;
+	}
+}
@@ -0,0 +1,319 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.example.ParallelSite.PingResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Live metrics of the probes of one ParallelSite: its executors, the
+ * probes open per host, every reported result, and the deadlines of the
+ * deadline strategy. Read them over JMX
+ * after register, or as plain text lines of "name value" from a local
+ * port after serve.
+ * <p>
+ * Executors are watched from their creation until the end of their run.
+ * Thread pools and fork-join pools report queue depth and active tasks;
+ * only thread pools report completed tasks and rejections. Executors of
+ * virtual threads do not queue, so they report nothing. Results count
+ * from the creation of this object, across runs.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ProbeMetrics implements ProbeMetricsMXBean {
+	/** Domain and type of the MBeans registered. */
+	public static final String OBJECT_NAME = "com.example:type=ProbeMetrics";
+	/** Path of the plain-text metrics. */
+	public static final String PATH = "/metrics";
+
+	/** Watch executor until endRun. */
+	public void watch(ExecutorService executor) {
+		if (executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+			RejectedExecutionHandler handler = pool.getRejectedExecutionHandler();
+			pool.setRejectedExecutionHandler((task, rejecting) -> {
+				rejections.increment();
+				handler.rejectedExecution(task, rejecting);
+			});
+		}
+		executors.add(executor);
+	}
+
+	/** Stop watching the executors of the run that ended. */
+	public void endRun() {
+		for (ExecutorService executor : executors) {
+			if (executor instanceof ThreadPoolExecutor) {
+				retiredCompleted.add(((ThreadPoolExecutor) executor).getCompletedTaskCount());
+			}
+		}
+		executors.clear();
+	}
+
+	/** A probe of host opened. */
+	public void probeStarted(String host) {
+		AtomicInteger open = inFlight.get(host);
+		if (open == null) {
+			if (inFlight.size() >= LatencyRecorder.MAX_URLS) {
+				host = OTHER_HOSTS;
+			}
+			open = inFlight.computeIfAbsent(host, key -> new AtomicInteger());
+		}
+		open.incrementAndGet();
+	}
+
+	/** A probe of host closed. */
+	public void probeFinished(String host) {
+		AtomicInteger open = inFlight.get(host);
+		(open != null ? open : inFlight.get(OTHER_HOSTS)).decrementAndGet();
+	}
+
+	/** Count a reported result, and time it if it succeeded. */
+	public void record(PingResult result) {
+		if (result.success) {
+			successes.increment();
+			latency.record(result.timingNanos);
+		} else {
+			failures.increment();
+		}
+	}
+
+	/** A probe answered by its deadline. */
+	public void deadlineMet() {
+		deadlinesMet.increment();
+	}
+
+	/** A probe answered lateNanos after its deadline. */
+	public void deadlineMissed(long lateNanos) {
+		deadlinesMissed.increment();
+		lateness.record(lateNanos);
+	}
+
+	/** Register as an MBean named OBJECT_NAME plus ",name=" name. */
+	public void register(String name) throws JMException {
+		objectName = new ObjectName(OBJECT_NAME + ",name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+	}
+
+	/** Serve the metrics as plain text on port of the loopback address. */
+	public void serve(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(PATH, this::scrape);
+		server.start();
+	}
+
+	/** Stop serving, and unregister the MBean. */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException ex) {
+				// already gone
+			}
+			objectName = null;
+		}
+	}
+
+	@Override
+	public int getQueueDepth() {
+		long depth = 0;
+		for (ExecutorService executor : executors) {
+			if (executor instanceof ThreadPoolExecutor) {
+				depth += ((ThreadPoolExecutor) executor).getQueue().size();
+			} else if (executor instanceof ForkJoinPool) {
+				ForkJoinPool pool = (ForkJoinPool) executor;
+				depth += pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+			}
+		}
+		return (int) Math.min(depth, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int getActiveTasks() {
+		int active = 0;
+		for (ExecutorService executor : executors) {
+			if (executor instanceof ThreadPoolExecutor) {
+				active += ((ThreadPoolExecutor) executor).getActiveCount();
+			} else if (executor instanceof ForkJoinPool) {
+				active += ((ForkJoinPool) executor).getActiveThreadCount();
+			}
+		}
+		return active;
+	}
+
+	@Override
+	public long getCompletedTasks() {
+		long completed = retiredCompleted.sum();
+		for (ExecutorService executor : executors) {
+			if (executor instanceof ThreadPoolExecutor) {
+				completed += ((ThreadPoolExecutor) executor).getCompletedTaskCount();
+			}
+		}
+		return completed;
+	}
+
+	@Override
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	@Override
+	public int getInFlightProbes() {
+		int open = 0;
+		for (AtomicInteger count : inFlight.values()) {
+			open += count.get();
+		}
+		return open;
+	}
+
+	@Override
+	public Map<String, Integer> getInFlightPerHost() {
+		Map<String, Integer> open = new TreeMap<>();
+		for (Map.Entry<String, AtomicInteger> entry : inFlight.entrySet()) {
+			int count = entry.getValue().get();
+			if (count > 0) {
+				open.put(entry.getKey(), count);
+			}
+		}
+		return open;
+	}
+
+	@Override
+	public long getSuccesses() {
+		return successes.sum();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	@Override
+	public double getSuccessRate() {
+		long ok = getSuccesses();
+		long all = ok + getFailures();
+		return all == 0 ? 1.0 : (double) ok / all;
+	}
+
+	@Override
+	public double getLatencyP50Millis() {
+		return latency.getPercentileNanos(0.50) / 1e6;
+	}
+
+	@Override
+	public double getLatencyP99Millis() {
+		return latency.getPercentileNanos(0.99) / 1e6;
+	}
+
+	@Override
+	public double getLatencyP999Millis() {
+		return latency.getPercentileNanos(0.999) / 1e6;
+	}
+
+	@Override
+	public double getLatencyMaxMillis() {
+		return latency.getMaxNanos() / 1e6;
+	}
+
+	@Override
+	public long getDeadlinesMet() {
+		return deadlinesMet.sum();
+	}
+
+	@Override
+	public long getDeadlinesMissed() {
+		return deadlinesMissed.sum();
+	}
+
+	@Override
+	public double getLatenessP99Millis() {
+		return lateness.getPercentileNanos(0.99) / 1e6;
+	}
+
+	@Override
+	public double getLatenessMaxMillis() {
+		return lateness.getMaxNanos() / 1e6;
+	}
+
+	/** Every metric, one "name value" line each. */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		line(text, "probe_queue_depth", getQueueDepth());
+		line(text, "probe_active_tasks", getActiveTasks());
+		line(text, "probe_completed_tasks", getCompletedTasks());
+		line(text, "probe_rejections", getRejections());
+		line(text, "probe_in_flight", getInFlightProbes());
+		for (Map.Entry<String, Integer> entry : getInFlightPerHost().entrySet()) {
+			line(text, "probe_in_flight{host=\"" + entry.getKey() + "\"}", entry.getValue());
+		}
+		line(text, "probe_successes", getSuccesses());
+		line(text, "probe_failures", getFailures());
+		line(text, "probe_success_rate", getSuccessRate());
+		line(text, "probe_latency_count", latency.getCount());
+		line(text, "probe_latency_mean_millis", latency.getMeanNanos() / 1e6);
+		line(text, "probe_latency_millis{quantile=\"0.5\"}", getLatencyP50Millis());
+		line(text, "probe_latency_millis{quantile=\"0.9\"}", latency.getPercentileNanos(0.90) / 1e6);
+		line(text, "probe_latency_millis{quantile=\"0.99\"}", getLatencyP99Millis());
+		line(text, "probe_latency_millis{quantile=\"0.999\"}", getLatencyP999Millis());
+		line(text, "probe_latency_max_millis", getLatencyMaxMillis());
+		line(text, "probe_deadlines_met", getDeadlinesMet());
+		line(text, "probe_deadlines_missed", getDeadlinesMissed());
+		line(text, "probe_lateness_millis{quantile=\"0.99\"}", getLatenessP99Millis());
+		line(text, "probe_lateness_max_millis", getLatenessMaxMillis());
+		return text.toString();
+	}
+
+	// PRIVATE
+	// Where probes of hosts past LatencyRecorder.MAX_URLS are counted.
+	private static final String OTHER_HOSTS = "other";
+	private final List<ExecutorService> executors = new CopyOnWriteArrayList<>();
+	private final LongAdder retiredCompleted = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+	private final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder successes = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder deadlinesMet = new LongAdder();
+	private final LongAdder deadlinesMissed = new LongAdder();
+	private final LatencyHistogram lateness = new LatencyHistogram();
+	private volatile HttpServer server;
+	private volatile ObjectName objectName;
+
+	private static void line(StringBuilder text, String name, Object value) {
+		text.append(name).append(' ').append(value).append('\n');
+	}
+
+	private void scrape(HttpExchange exchange) throws IOException {
+		byte[] body = toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.example;
+
+import java.util.Map;
+
+/**
+ * Live metrics of the probes of one ParallelSite, as seen over JMX.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public interface ProbeMetricsMXBean {
+	/** Tasks waiting in the executors of the current run. */
+	int getQueueDepth();
+
+	/** Tasks running in the executors of the current run. */
+	int getActiveTasks();
+
+	/** Tasks completed by every executor watched so far. */
+	long getCompletedTasks();
+
+	/** Tasks an executor refused. */
+	long getRejections();
+
+	/** Probes open now. */
+	int getInFlightProbes();
+
+	/** Probes open now, by host, for hosts with any open. */
+	Map<String, Integer> getInFlightPerHost();
+
+	/** Results reported as successes. */
+	long getSuccesses();
+
+	/** Results reported as failures. */
+	long getFailures();
+
+	/** Fraction of reported results that succeeded. */
+	double getSuccessRate();
+
+	/** Median latency of every successful result, in mS. */
+	double getLatencyP50Millis();
+
+	/** 99th percentile latency of every successful result, in mS. */
+	double getLatencyP99Millis();
+
+	/** 99.9th percentile latency of every successful result, in mS. */
+	double getLatencyP999Millis();
+
+	/** Largest latency of any successful result, in mS. */
+	double getLatencyMaxMillis();
+
+	/** Probes of the deadline strategy answered by their deadline. */
+	long getDeadlinesMet();
+
+	/** Probes of the deadline strategy answered after their deadline. */
+	long getDeadlinesMissed();
+
+	/** 99th percentile of how late a missed probe was, in mS. */
+	double getLatenessP99Millis();
+
+	/** Latest any missed probe was, in mS. */
+	double getLatenessMaxMillis();
+}
@@ -0,0 +1,130 @@
+package com.example;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Continuous monitor. Probes each target again and again, each on its
+ * own interval, until stopped.
+ * <p>
+ * Every wait is a timer on one TimingWheel, so the cost of scheduling
+ * stays flat however many targets there are. When a timer fires, the
+ * probe is handed to the executor, and the next probe of that target is
+ * scheduled when this one has answered. A slow target is therefore never
+ * probed twice at once. Each interval is varied by up to jitter either
+ * way, and first probes are spread over one interval, so targets added
+ * together do not stay in lock step.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ProbeMonitor {
+
+	/**
+	 * @param executor runs the probes
+	 * @param probes makes the probe of a URL
+	 * @param sink receives each result, on a probe thread
+	 * @param jitter fraction by which each interval may vary, e.g. 0.1
+	 */
+	public ProbeMonitor(ExecutorService executor, Function<String, Callable<PingResult>> probes,
+			Consumer<PingResult> sink, double jitter) {
+		this.executor = executor;
+		this.probes = probes;
+		this.sink = sink;
+		this.jitter = jitter;
+	}
+
+	/** Start probing url every intervalMillis, replacing any interval it had. */
+	public void add(String url, long intervalMillis) {
+		Target target = new Target(url, intervalMillis);
+		Target previous = targets.put(url, target);
+		if (previous != null) {
+			previous.removed = true;
+		}
+		wheel.schedule(() -> launch(target),
+			(long) (ThreadLocalRandom.current().nextDouble() * intervalMillis));
+	}
+
+	/** Stop probing url. A probe already running still reports. */
+	public void remove(String url) {
+		Target target = targets.remove(url);
+		if (target != null) {
+			target.removed = true;
+		}
+	}
+
+	/** Stop all probing. The executor is left to the caller. */
+	public void stop() {
+		stopped = true;
+		wheel.shutdown();
+	}
+
+	/** Targets being monitored. */
+	public int getTargets() {
+		return targets.size();
+	}
+
+	/** Probes completed so far. */
+	public long getProbes() {
+		return probesDone.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "targets=" + getTargets() + " probes=" + getProbes() + " wheel: " + wheel;
+	}
+
+	// PRIVATE
+	private final ExecutorService executor;
+	private final Function<String, Callable<PingResult>> probes;
+	private final Consumer<PingResult> sink;
+	private final double jitter;
+	private final TimingWheel wheel = new TimingWheel();
+	private final ConcurrentMap<String, Target> targets = new ConcurrentHashMap<>();
+	private final LongAdder probesDone = new LongAdder();
+	private volatile boolean stopped;
+
+	private static final class Target {
+		Target(String url, long intervalMillis) {
+			this.url = url;
+			this.intervalMillis = intervalMillis;
+		}
+
+		final String url;
+		final long intervalMillis;
+		volatile boolean removed;
+	}
+
+	// On the wheel's ticker: hand the probe to the executor.
+	private void launch(Target target) {
+		if (stopped || target.removed) {
+			return;
+		}
+		try {
+			executor.execute(() -> probe(target));
+		} catch (RejectedExecutionException ex) {
+			// executor shut down; monitoring is over
+		}
+	}
+
+	private void probe(Target target) {
+		try {
+			sink.accept(probes.apply(target.url).call());
+			probesDone.increment();
+		} catch (Exception ex) {
+			// no result this time; try again next interval
+		}
+		if (!stopped && !target.removed) {
+			double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+			wheel.schedule(() -> launch(target), (long) (factor * target.intervalMillis));
+		}
+	}
+}
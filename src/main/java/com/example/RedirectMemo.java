@@ -0,0 +1,77 @@
+package com.example;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memo of permanent redirects, so later probes of a URL that moved go
+ * straight to where it moved to, skipping the redirect round trip.
+ * <p>
+ * Only 301 and 308 answers are remembered; the others may change, so
+ * they are followed every time. Entries are keyed by URL text, since
+ * URL.equals resolves host names. At most MAX_ENTRIES are kept.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class RedirectMemo {
+	/** Most redirects followed by one probe, or through the memo. */
+	public static final int MAX_REDIRECTS = 5;
+	/** Most redirects remembered. */
+	public static final int MAX_ENTRIES = 100000;
+
+	/** True for the response codes that redirect. */
+	public static boolean isRedirect(int responseCode) {
+		return responseCode == 301 || responseCode == 302 || responseCode == 303
+			|| responseCode == 307 || responseCode == 308;
+	}
+
+	/** True for the response codes that redirect for good. */
+	public static boolean isPermanent(int responseCode) {
+		return responseCode == 301 || responseCode == 308;
+	}
+
+	/** Where url ends up after the permanent redirects remembered, or url itself. */
+	public URL resolve(URL url) {
+		String location = url.toString();
+		int hops = 0;
+		String next;
+		while (hops < MAX_REDIRECTS && (next = moved.get(location)) != null) {
+			location = next;
+			hops++;
+		}
+		if (hops == 0) {
+			return url;
+		}
+		try {
+			URL target = new URL(location);
+			hits.increment();
+			return target;
+		} catch (MalformedURLException ex) {
+			return url; // cannot happen; entries come from URLs
+		}
+	}
+
+	/** Remember that from redirects permanently to to. */
+	public void remember(URL from, URL to) {
+		if (moved.size() < MAX_ENTRIES && !from.toString().equals(to.toString())) {
+			moved.put(from.toString(), to.toString());
+		}
+	}
+
+	/** Probes sent straight to a remembered location. */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "remembered=" + moved.size() + " hits=" + getHits();
+	}
+
+	// PRIVATE
+	private final ConcurrentMap<String, String> moved = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+}
@@ -0,0 +1,174 @@
+package com.example;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Append-only binary log of probe results, in a directory of
+ * memory-mapped segment files.
+ * <p>
+ * Every result is one RECORD_BYTES record, so appending is a few puts
+ * into the mapped segment, with no formatting and no system call. A
+ * segment holds SEGMENT_RECORDS records; when it is full the next one is
+ * created. Segments are named segment-000000.bin upwards, and are
+ * created full size, so unused records are zero. URLs are numbered in
+ * order of first appearance and listed, one per line, in urls.txt; records
+ * hold the URL number. Reopening a log continues where it left off.
+ * <p>
+ * Record layout, big-endian: time mS (8), URL number (4), response code
+ * (2), success (1), phased (1), then request, DNS, connect, TLS, first
+ * byte and body times in nS (8 each). Time is written last, and zero time
+ * marks the end of the data, so a record cut short by a crash reads as the
+ * end. Use ResultLogReader to read a log.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ResultLog implements Closeable {
+	/** Bytes in one record. */
+	public static final int RECORD_BYTES = 64;
+	/** Records in one segment, 64 MB. */
+	public static final int SEGMENT_RECORDS = 1 << 20;
+	/** Name of the URL list in the log directory. */
+	public static final String URLS = "urls.txt";
+
+	/** Open the log in dir, creating it if need be, to append after any records already there. */
+	public ResultLog(Path dir) throws IOException {
+		this.dir = dir;
+		Files.createDirectories(dir);
+		Path urlFile = dir.resolve(URLS);
+		if (Files.exists(urlFile)) {
+			List<String> known = Files.readAllLines(urlFile, StandardCharsets.UTF_8);
+			for (int i = 0; i < known.size(); i++) {
+				urlNumbers.put(known.get(i), i);
+			}
+		}
+		urls = Files.newBufferedWriter(urlFile, StandardCharsets.UTF_8,
+			StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		int last = 0;
+		while (Files.exists(segmentPath(dir, last + 1))) {
+			last++;
+		}
+		openSegment(last);
+		segment.position(firstFree(segment) * RECORD_BYTES);
+	}
+
+	/** Append a result, timed now. */
+	public void append(PingResult result) throws IOException {
+		append(result, System.currentTimeMillis());
+	}
+
+	/** Append a result, timed at timeMillis, which must not be zero. */
+	public synchronized void append(PingResult result, long timeMillis) throws IOException {
+		if (segment == null) {
+			throw new IOException("result log closed");
+		}
+		int url = urlNumber(result.url);
+		if (!segment.hasRemaining()) {
+			openSegment(segmentNumber + 1);
+		}
+		int at = segment.position();
+		segment.position(at + 8);
+		segment.putInt(url);
+		segment.putShort((short) result.responseCode);
+		segment.put((byte) (result.success ? 1 : 0));
+		segment.put((byte) (result.phased ? 1 : 0));
+		segment.putLong(result.timingNanos);
+		segment.putLong(result.dnsNanos);
+		segment.putLong(result.connectNanos);
+		segment.putLong(result.tlsNanos);
+		segment.putLong(result.firstByteNanos);
+		segment.putLong(result.bodyNanos);
+		segment.putLong(at, timeMillis);
+		appended++;
+	}
+
+	/** Records appended since this log was opened. */
+	public synchronized long getAppended() {
+		return appended;
+	}
+
+	/** Force appended records and URLs to disk. */
+	public synchronized void flush() throws IOException {
+		urls.flush();
+		if (segment != null) {
+			segment.force();
+		}
+	}
+
+	/** Flush and close. The mapping itself is released when collected. */
+	@Override
+	public synchronized void close() throws IOException {
+		if (segment != null) {
+			flush();
+			segment = null;
+			urls.close();
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return dir + " segment=" + segmentNumber + " urls=" + urlNumbers.size() + " appended=" + appended;
+	}
+
+	/** The path of segment n in dir. */
+	static Path segmentPath(Path dir, int n) {
+		return dir.resolve(String.format("segment-%06d.bin", n));
+	}
+
+	/** Index of the first record with zero time, or the record count if full. */
+	static int firstFree(MappedByteBuffer segment) {
+		// Records are written in order, so the used ones form a prefix.
+		int low = 0;
+		int high = segment.capacity() / RECORD_BYTES;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (segment.getLong(mid * RECORD_BYTES) != 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	// PRIVATE
+	private final Path dir;
+	private final Map<String, Integer> urlNumbers = new HashMap<>();
+	private final BufferedWriter urls;
+	private MappedByteBuffer segment;
+	private int segmentNumber;
+	private long appended;
+
+	private void openSegment(int n) throws IOException {
+		try (FileChannel channel = FileChannel.open(segmentPath(dir, n),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) SEGMENT_RECORDS * RECORD_BYTES);
+		}
+		segmentNumber = n;
+	}
+
+	// Called with the log locked.
+	private int urlNumber(String url) throws IOException {
+		Integer number = urlNumbers.get(url);
+		if (number == null) {
+			number = urlNumbers.size();
+			urlNumbers.put(url, number);
+			urls.write(url);
+			urls.newLine();
+			urls.flush(); // records must never outlive the number they use
+		}
+		return number;
+	}
+}
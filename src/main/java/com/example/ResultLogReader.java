@@ -0,0 +1,149 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Reads a ResultLog, one segment after another, in the order written.
+ * <p>
+ * Each segment is mapped read-only and its records decoded into one reused
+ * PingResult rather than a new object per record. A time-range scan
+ * skips segments whose first and last times show no record can be in
+ * range. Records are in completion order, so times within a segment are
+ * only roughly sorted; SKEW_MILLIS allows for that.
+ * <p>
+ * As a tool, summarizes a log: java com.example.ResultLogReader dir [from
+ * mS [to mS]].
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ResultLogReader {
+	/** Most a record's time may precede that of one written before it. */
+	public static final long SKEW_MILLIS = 600000;
+
+	/** Receives each record. The result is reused; copy what you keep. */
+	public interface RecordVisitor {
+		void record(long timeMillis, PingResult result);
+	}
+
+	/** Summarize the log in a directory, optionally within a time range. */
+	public static final void main(String... aArgs) throws IOException {
+		if (aArgs.length < 1) {
+			log("Usage: ResultLogReader dir [fromMillis [toMillis]]");
+			return;
+		}
+		ResultLogReader reader = new ResultLogReader(Paths.get(aArgs[0]));
+		long from = aArgs.length > 1 ? Long.parseLong(aArgs[1]) : Long.MIN_VALUE;
+		long to = aArgs.length > 2 ? Long.parseLong(aArgs[2]) : Long.MAX_VALUE;
+		LatencyHistogram latencies = new LatencyHistogram();
+		Map<Integer, long[]> codes = new TreeMap<>();
+		long[] summary = { 0, Long.MAX_VALUE, Long.MIN_VALUE }; // failures, first, last
+		reader.scan(from, to, (time, result) -> {
+			if (result.success) {
+				latencies.record(result.timingNanos);
+			} else {
+				summary[0]++;
+			}
+			summary[1] = Math.min(summary[1], time);
+			summary[2] = Math.max(summary[2], time);
+			long[] count = codes.get(result.responseCode);
+			if (count == null) {
+				count = new long[1];
+				codes.put(result.responseCode, count);
+			}
+			count[0]++;
+		});
+		log("Segments: " + reader.getSegments() + ", URLs: " + reader.urls.size());
+		if (summary[1] <= summary[2]) {
+			log("Time: " + summary[1] + " to " + summary[2] + " mS");
+		}
+		log("Latency: " + latencies + " failures=" + summary[0]);
+		for (Map.Entry<Integer, long[]> entry : codes.entrySet()) {
+			log("   Response " + entry.getKey() + ": " + entry.getValue()[0]);
+		}
+	}
+
+	/** A reader of the log in dir. */
+	public ResultLogReader(Path dir) throws IOException {
+		this.dir = dir;
+		this.urls = Files.readAllLines(dir.resolve(ResultLog.URLS), StandardCharsets.UTF_8);
+	}
+
+	/** Visit every record. */
+	public void scan(RecordVisitor visitor) throws IOException {
+		scan(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+	}
+
+	/** Visit every record timed from fromMillis up to but not including toMillis. */
+	public void scan(long fromMillis, long toMillis, RecordVisitor visitor) throws IOException {
+		PingResult result = new PingResult();
+		for (int n = 0; Files.exists(ResultLog.segmentPath(dir, n)); n++) {
+			MappedByteBuffer segment;
+			try (FileChannel channel = FileChannel.open(ResultLog.segmentPath(dir, n), StandardOpenOption.READ)) {
+				segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			int used = ResultLog.firstFree(segment);
+			if (used == 0) {
+				continue;
+			}
+			long first = segment.getLong(0);
+			long last = segment.getLong((used - 1) * ResultLog.RECORD_BYTES);
+			if (last + SKEW_MILLIS < fromMillis || first - SKEW_MILLIS >= toMillis) {
+				continue;
+			}
+			for (int i = 0; i < used; i++) {
+				int at = i * ResultLog.RECORD_BYTES;
+				long time = segment.getLong(at);
+				if (time < fromMillis || time >= toMillis) {
+					continue;
+				}
+				decode(segment, at, result);
+				visitor.record(time, result);
+			}
+		}
+	}
+
+	/** Number of segment files. */
+	public int getSegments() {
+		int n = 0;
+		while (Files.exists(ResultLog.segmentPath(dir, n))) {
+			n++;
+		}
+		return n;
+	}
+
+	// PRIVATE
+	private final Path dir;
+	private final List<String> urls;
+
+	private void decode(MappedByteBuffer segment, int at, PingResult result) {
+		int url = segment.getInt(at + 8);
+		result.url = url < urls.size() ? urls.get(url) : "#" + url;
+		result.responseCode = segment.getShort(at + 12);
+		result.success = segment.get(at + 14) != 0;
+		result.phased = segment.get(at + 15) != 0;
+		result.timingNanos = segment.getLong(at + 16);
+		result.dnsNanos = segment.getLong(at + 24);
+		result.connectNanos = segment.getLong(at + 32);
+		result.tlsNanos = segment.getLong(at + 40);
+		result.firstByteNanos = segment.getLong(at + 48);
+		result.bodyNanos = segment.getLong(at + 56);
+		result.timing = result.timingNanos / 1000000;
+		result.dnsTiming = result.dnsNanos / 1000000;
+	}
+
+	private static void log(Object aMsg) {
+		System.out.println(String.valueOf(aMsg));
+	}
+}
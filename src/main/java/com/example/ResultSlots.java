@@ -0,0 +1,105 @@
+package com.example;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Results of one run, kept in flat primitive arrays indexed by target id,
+ * one array per field. A probe copies its result into its slot instead
+ * of handing over a new object, and the arrays are reused run after run,
+ * so copying a result in or out allocates nothing. The probe itself still
+ * does: its connection, any redirect URL, and metrics entries for a new
+ * host. The content-check verdict is kept as a byte: 0 when unchecked,
+ * else its ordinal plus one.
+ * <p>
+ * Each slot has a done flag, set after the fields are written, so a
+ * reader that sees the flag also sees the fields. Each slot is written by
+ * one thread per run.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ResultSlots {
+
+	public ResultSlots(int capacity) {
+		done = new AtomicIntegerArray(capacity);
+		successes = new boolean[capacity];
+		phased = new boolean[capacity];
+		responseCodes = new int[capacity];
+		timingNanos = new long[capacity];
+		dnsNanos = new long[capacity];
+		connectNanos = new long[capacity];
+		tlsNanos = new long[capacity];
+		firstByteNanos = new long[capacity];
+		bodyNanos = new long[capacity];
+		redirects = new int[capacity];
+		contents = new byte[capacity];
+	}
+
+	/** Most targets this can hold. */
+	public int getCapacity() {
+		return successes.length;
+	}
+
+	/** Mark the first size slots empty, ready for a run. */
+	public void clear(int size) {
+		for (int id = 0; id < size; id++) {
+			done.set(id, 0);
+		}
+	}
+
+	/** Copy result into slot id, and mark it done. */
+	public void set(int id, PingResult result) {
+		successes[id] = result.success;
+		phased[id] = result.phased;
+		responseCodes[id] = result.responseCode;
+		timingNanos[id] = result.timingNanos;
+		dnsNanos[id] = result.dnsNanos;
+		connectNanos[id] = result.connectNanos;
+		tlsNanos[id] = result.tlsNanos;
+		firstByteNanos[id] = result.firstByteNanos;
+		bodyNanos[id] = result.bodyNanos;
+		redirects[id] = result.redirects;
+		contents[id] = (byte) (result.content == null ? 0 : result.content.ordinal() + 1);
+		done.set(id, 1);
+	}
+
+	/** Copy slot id into result, leaving its url alone. Return false if the slot is not done. */
+	public boolean get(int id, PingResult result) {
+		if (done.get(id) == 0) {
+			return false;
+		}
+		String url = result.url;
+		result.clear();
+		result.url = url;
+		result.success = successes[id];
+		result.phased = phased[id];
+		result.responseCode = responseCodes[id];
+		result.timingNanos = timingNanos[id];
+		result.timing = timingNanos[id] / 1000000;
+		result.dnsNanos = dnsNanos[id];
+		result.dnsTiming = dnsNanos[id] / 1000000;
+		result.connectNanos = connectNanos[id];
+		result.tlsNanos = tlsNanos[id];
+		result.firstByteNanos = firstByteNanos[id];
+		result.bodyNanos = bodyNanos[id];
+		result.redirects = redirects[id];
+		result.content = contents[id] == 0 ? null : VERDICTS[contents[id] - 1];
+		return true;
+	}
+
+	// PRIVATE
+	private static final ContentCheck.Verdict[] VERDICTS = ContentCheck.Verdict.values();
+	private final AtomicIntegerArray done;
+	private final boolean[] successes;
+	private final boolean[] phased;
+	private final int[] responseCodes;
+	private final long[] timingNanos;
+	private final long[] dnsNanos;
+	private final long[] connectNanos;
+	private final long[] tlsNanos;
+	private final long[] firstByteNanos;
+	private final long[] bodyNanos;
+	private final int[] redirects;
+	private final byte[] contents;
+}
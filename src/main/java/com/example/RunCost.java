@@ -0,0 +1,203 @@
+package com.example;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What one strategy run cost the JVM: bytes allocated and CPU time, per
+ * thread and in total, and garbage collections and their time, next to
+ * the wall time.
+ * <p>
+ * Created at the start of a run, it notes each live thread's counters and
+ * the collectors' totals, and end takes the differences. A thread that ends
+ * during the run would take its counters with it, so threads of the
+ * checker's own executors call threadEnded as they exit. Threads that
+ * end during the run but are not made by those executors are not counted.
+ * Virtual threads are not counted either, as the JVM does not report them,
+ * nor are other processes, such as shard workers.
+ * <p>
+ * Allocation needs the HotSpot ThreadMXBean. Without it, or with thread
+ * CPU timing off, those figures are -1.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class RunCost {
+	/** Threads listed by name in toString, the heaviest allocators. */
+	public static final int TOP_THREADS = 5;
+
+	/** Start counting now. */
+	public RunCost() {
+		for (long id : THREADS.getAllThreadIds()) {
+			startBytes.put(id, allocatedBytes(id));
+			startCpu.put(id, cpuNanos(id));
+		}
+		startGcCount = gcCount();
+		startGcMillis = gcMillis();
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Count the calling thread, which is about to end. Ignored once the
+	 * run has ended.
+	 */
+	public synchronized void threadEnded() {
+		if (ended) {
+			return;
+		}
+		Thread thread = Thread.currentThread();
+		long id = thread.getId();
+		add(id, thread.getName(), allocatedBytes(id), cpuNanos(id));
+	}
+
+	/** Stop counting, and take the differences. */
+	public synchronized void end() {
+		if (ended) {
+			return;
+		}
+		ended = true;
+		wallNanos = System.nanoTime() - startNanos;
+		long[] ids = THREADS.getAllThreadIds();
+		ThreadInfo[] infos = THREADS.getThreadInfo(ids);
+		for (int i = 0; i < ids.length; i++) {
+			if (infos[i] != null && !counted.contains(ids[i])) {
+				add(ids[i], infos[i].getThreadName(), allocatedBytes(ids[i]), cpuNanos(ids[i]));
+			}
+		}
+		gcCount = gcCount() - startGcCount;
+		gcMillis = gcMillis() - startGcMillis;
+	}
+
+	/** Bytes allocated by every counted thread, or -1 if not known. */
+	public long getAllocatedBytes() {
+		return ALLOCATION ? allocatedBytes : -1;
+	}
+
+	/** CPU time of every counted thread, or -1 if not known. */
+	public long getCpuNanos() {
+		return CPU ? cpuNanos : -1;
+	}
+
+	/** Wall time from start to end. */
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	/** Garbage collections during the run. */
+	public long getGcCount() {
+		return gcCount;
+	}
+
+	/** Time spent collecting garbage during the run, in mS. */
+	public long getGcMillis() {
+		return gcMillis;
+	}
+
+	/** Bytes allocated by each counted thread, by name. */
+	public Map<String, Long> getAllocatedPerThread() {
+		return new HashMap<>(bytesPerThread);
+	}
+
+	/**
+	 * CPU, allocation and GC for the run, with per-probe figures for
+	 * probes, then the TOP_THREADS heaviest allocators.
+	 */
+	public String toString(long probes) {
+		long per = Math.max(1, probes);
+		StringBuilder text = new StringBuilder("cpu=");
+		if (getCpuNanos() >= 0) {
+			text.append(TimeUnit.NANOSECONDS.toMillis(cpuNanos)).append(" mS (")
+				.append(Math.round(100.0 * cpuNanos / Math.max(1, wallNanos))).append("% of wall, ")
+				.append(cpuNanos / per / 1000).append(" uS/probe)");
+		} else {
+			text.append("n/a");
+		}
+		text.append(" allocated=");
+		if (getAllocatedBytes() >= 0) {
+			text.append(allocatedBytes >> 10).append(" KB (")
+				.append(allocatedBytes / per >> 10).append(" KB/probe)");
+		} else {
+			text.append("n/a");
+		}
+		text.append(" gc=").append(gcCount).append(" in ").append(gcMillis).append(" mS");
+		if (getAllocatedBytes() >= 0) {
+			List<Map.Entry<String, Long>> heaviest = new ArrayList<>(bytesPerThread.entrySet());
+			heaviest.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+			for (Map.Entry<String, Long> entry : heaviest.subList(0, Math.min(TOP_THREADS, heaviest.size()))) {
+				text.append("\n   Allocated: ").append(entry.getValue() >> 10).append(" KB ")
+					.append(entry.getKey());
+			}
+		}
+		return text.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toString(1);
+	}
+
+	// PRIVATE
+	private static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	// HotSpot's bean, which can report allocation, or null.
+	private static final com.sun.management.ThreadMXBean HOTSPOT_THREADS =
+		THREADS instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) THREADS : null;
+	private static final boolean ALLOCATION = HOTSPOT_THREADS != null
+		&& HOTSPOT_THREADS.isThreadAllocatedMemorySupported() && HOTSPOT_THREADS.isThreadAllocatedMemoryEnabled();
+	private static final boolean CPU = THREADS.isThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+	private final Map<Long, Long> startBytes = new HashMap<>();
+	private final Map<Long, Long> startCpu = new HashMap<>();
+	private final Set<Long> counted = new HashSet<>();
+	private final Map<String, Long> bytesPerThread = new HashMap<>();
+	private final long startGcCount;
+	private final long startGcMillis;
+	private final long startNanos;
+	private boolean ended;
+	private long allocatedBytes;
+	private long cpuNanos;
+	private long wallNanos;
+	private long gcCount;
+	private long gcMillis;
+
+	// Add what thread id used since the start, or since it began.
+	private void add(long id, String name, long bytes, long cpu) {
+		counted.add(id);
+		long usedBytes = Math.max(0, bytes - startBytes.getOrDefault(id, 0L));
+		long usedCpu = Math.max(0, cpu - startCpu.getOrDefault(id, 0L));
+		allocatedBytes += usedBytes;
+		cpuNanos += usedCpu;
+		if (usedBytes > 0) {
+			bytesPerThread.merge(name, usedBytes, Long::sum);
+		}
+	}
+
+	private static long allocatedBytes(long id) {
+		return ALLOCATION ? Math.max(0, HOTSPOT_THREADS.getThreadAllocatedBytes(id)) : 0;
+	}
+
+	private static long cpuNanos(long id) {
+		return CPU ? Math.max(0, THREADS.getThreadCpuTime(id)) : 0;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, collector.getCollectionTime());
+		}
+		return millis;
+	}
+}
@@ -0,0 +1,309 @@
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.example.ParallelSite.PingResult;
+
+/**
+ * Probes targets across several worker processes, each a ShardWorker with
+ * its own heap, file descriptors and threads.
+ * <p>
+ * Targets are split by a ConsistentHash of their host, so all probes of a
+ * host come from one worker and share its keep-alive connections. Each
+ * worker gets its targets on standard input and streams back one line per
+ * result. Results are handed to the sink on the calling thread. Each
+ * success is recorded in a histogram per worker, which getMerged adds up;
+ * failures are only counted, as in LatencyRecorder.
+ * <p>
+ * A worker that exits without its END line has failed. Its unanswered
+ * targets are hashed again over the workers that did not fail and probed
+ * in a new round by fresh processes, for up to MAX_ROUNDS rounds. Targets
+ * a worker left unanswered before its END line passed the worker's own
+ * deadline, and are given to the sink as failed results, untimed.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ShardCoordinator {
+	/** Last line of a worker that finished. */
+	public static final String END = "END";
+	/** Points per worker on the hash ring. */
+	public static final int REPLICAS = 160;
+	/** Most rounds of probing, the first plus re-shards. */
+	public static final int MAX_ROUNDS = 3;
+
+	/**
+	 * @param workers number of worker processes
+	 * @param command command line that starts one worker
+	 */
+	public ShardCoordinator(int workers, List<String> command) {
+		this.workers = workers;
+		this.command = command;
+		this.shards = new LatencyHistogram[workers];
+		this.failures = new long[workers];
+		for (int i = 0; i < workers; i++) {
+			shards[i] = new LatencyHistogram();
+		}
+	}
+
+	/** The command to start a ShardWorker in this JVM's Java and class path. */
+	public static List<String> workerCommand(Map<String, String> properties) {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			command.add("-D" + property.getKey() + "=" + property.getValue());
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ShardWorker.class.getName());
+		return command;
+	}
+
+	/**
+	 * Probe targets across the workers, within deadlineMillis. Each result
+	 * is given to sink on this thread. Return the number of targets never
+	 * answered.
+	 */
+	public int run(List<String> targets, long deadlineMillis, Consumer<PingResult> sink)
+			throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + deadlineMillis;
+		Set<Integer> live = new LinkedHashSet<>();
+		for (int i = 0; i < workers; i++) {
+			live.add(i);
+		}
+		List<String> remaining = targets;
+		for (int round = 0; round < MAX_ROUNDS && !remaining.isEmpty() && !live.isEmpty(); round++) {
+			ConsistentHash ring = new ConsistentHash(live, REPLICAS);
+			Map<Integer, List<String>> assigned = new HashMap<>();
+			for (String url : remaining) {
+				int shard = ring.nodeFor(ParallelSite.hostOf(url));
+				List<String> list = assigned.get(shard);
+				if (list == null) {
+					list = new ArrayList<>();
+					assigned.put(shard, list);
+				}
+				list.add(url);
+			}
+			if (round > 0) {
+				resharded += remaining.size();
+			}
+			remaining = probeRound(assigned, deadline, sink, live);
+			if (System.currentTimeMillis() >= deadline) {
+				break;
+			}
+		}
+		return remaining.size();
+	}
+
+	/** Histograms of the successful results of each worker. */
+	public LatencyHistogram[] getShards() {
+		return shards.clone();
+	}
+
+	/** Number of failed results of each worker. */
+	public long[] getShardFailures() {
+		return failures.clone();
+	}
+
+	/** Number of failed results of every worker. */
+	public long getFailures() {
+		long total = 0;
+		for (long count : failures) {
+			total += count;
+		}
+		return total;
+	}
+
+	/** One histogram of the successful results of every worker. */
+	public LatencyHistogram getMerged() {
+		LatencyHistogram merged = new LatencyHistogram();
+		for (LatencyHistogram shard : shards) {
+			merged.add(shard);
+		}
+		return merged;
+	}
+
+	@Override
+	public String toString() {
+		return "workers=" + workers + " failed=" + failed + " resharded=" + resharded
+			+ " failed probes=" + getFailures();
+	}
+
+	/** One result as one line: tab-separated fields, URL first. */
+	static String encode(PingResult result) {
+		return result.url + '\t' + (result.success ? 1 : 0) + '\t' + result.responseCode
+			+ '\t' + result.timingNanos + '\t' + result.dnsNanos + '\t' + (result.phased ? 1 : 0)
+			+ '\t' + result.connectNanos + '\t' + result.tlsNanos
+			+ '\t' + result.firstByteNanos + '\t' + result.bodyNanos;
+	}
+
+	/** The result on a line made by encode. Throws IllegalArgumentException if it is not one. */
+	static PingResult decode(String line) {
+		String[] fields = line.split("\t");
+		if (fields.length != 10) {
+			throw new IllegalArgumentException("not a result line: " + line);
+		}
+		try {
+			PingResult result = new PingResult();
+			result.url = fields[0];
+			result.success = fields[1].equals("1");
+			result.responseCode = Integer.parseInt(fields[2]);
+			result.timingNanos = Long.parseLong(fields[3]);
+			result.timing = TimeUnit.NANOSECONDS.toMillis(result.timingNanos);
+			result.dnsNanos = Long.parseLong(fields[4]);
+			result.dnsTiming = TimeUnit.NANOSECONDS.toMillis(result.dnsNanos);
+			result.phased = fields[5].equals("1");
+			result.connectNanos = Long.parseLong(fields[6]);
+			result.tlsNanos = Long.parseLong(fields[7]);
+			result.firstByteNanos = Long.parseLong(fields[8]);
+			result.bodyNanos = Long.parseLong(fields[9]);
+			return result;
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("not a result line: " + line, ex);
+		}
+	}
+
+	// PRIVATE
+	private final int workers;
+	private final List<String> command;
+	private final LatencyHistogram[] shards;
+	private final long[] failures;
+	private int failed;
+	private int resharded;
+
+	// A line from a worker, or its end when result is null.
+	private static final class Event {
+		Event(int shard, PingResult result, boolean finished) {
+			this.shard = shard;
+			this.result = result;
+			this.finished = finished;
+		}
+
+		final int shard;
+		final PingResult result;
+		final boolean finished;
+	}
+
+	// Start one worker per shard, and report results until all have ended
+	// or the deadline. Remove failed workers from live. Return the targets
+	// they left unanswered, and those of workers cut off by the deadline.
+	private List<String> probeRound(Map<Integer, List<String>> assigned, long deadline,
+			Consumer<PingResult> sink, Set<Integer> live) throws IOException, InterruptedException {
+		BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+		Map<Integer, Process> processes = new HashMap<>();
+		Map<Integer, Map<String, Integer>> pending = new HashMap<>();
+		try {
+			for (Map.Entry<Integer, List<String>> entry : assigned.entrySet()) {
+				int shard = entry.getKey();
+				Map<String, Integer> counts = new HashMap<>();
+				for (String url : entry.getValue()) {
+					counts.merge(url, 1, Integer::sum);
+				}
+				pending.put(shard, counts);
+				Process process = new ProcessBuilder(command)
+					.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+				processes.put(shard, process);
+				// Workers read all their input before writing, so this cannot block on them.
+				try (BufferedWriter in = new BufferedWriter(
+						new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8))) {
+					for (String url : entry.getValue()) {
+						in.write(url);
+						in.newLine();
+					}
+				}
+				Thread reader = new Thread(() -> read(shard, process, events), "ShardReader-" + shard);
+				reader.setDaemon(true);
+				reader.start();
+			}
+			for (int running = processes.size(); running > 0; ) {
+				Event event = events.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				if (event == null) {
+					break; // deadline
+				}
+				if (event.result != null) {
+					pending.get(event.shard).computeIfPresent(event.result.url, (url, n) -> n > 1 ? n - 1 : null);
+					if (event.result.success) {
+						shards[event.shard].record(event.result.timingNanos);
+					} else {
+						failures[event.shard]++;
+					}
+					sink.accept(event.result);
+					continue;
+				}
+				running--;
+				if (event.finished) {
+					// What is left passed the worker's own deadline.
+					for (Map.Entry<String, Integer> left : pending.remove(event.shard).entrySet()) {
+						for (int n = 0; n < left.getValue(); n++) {
+							PingResult result = new PingResult();
+							result.url = left.getKey();
+							failures[event.shard]++;
+							sink.accept(result);
+						}
+					}
+				} else {
+					failed++;
+					live.remove(event.shard);
+				}
+			}
+			// Targets of failed workers, and of workers still running at the deadline.
+			List<String> orphans = new ArrayList<>();
+			for (Map<String, Integer> left : pending.values()) {
+				for (Map.Entry<String, Integer> entry : left.entrySet()) {
+					for (int n = 0; n < entry.getValue(); n++) {
+						orphans.add(entry.getKey());
+					}
+				}
+			}
+			return orphans;
+		} finally {
+			for (Process process : processes.values()) {
+				process.destroyForcibly();
+			}
+		}
+	}
+
+	// On a reader thread: pass on each result line, then whether the
+	// worker finished properly. A line that is not a result means the
+	// worker broke the protocol, so it is failed and killed.
+	private static void read(int shard, Process process, BlockingQueue<Event> events) {
+		boolean finished = false;
+		try (BufferedReader out = new BufferedReader(
+				new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = out.readLine()) != null) {
+				if (line.equals(END)) {
+					finished = true;
+					continue;
+				}
+				events.add(new Event(shard, decode(line), false));
+			}
+			finished = finished && process.waitFor() == 0;
+		} catch (IllegalArgumentException ex) {
+			System.err.println("Worker " + shard + " failed: " + ex.getMessage());
+			process.destroyForcibly();
+			finished = false;
+		} catch (IOException ex) {
+			finished = false;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			finished = false;
+		}
+		events.add(new Event(shard, null, finished));
+	}
+}
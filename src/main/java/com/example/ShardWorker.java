@@ -0,0 +1,71 @@
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A worker process of a ShardCoordinator.
+ * <p>
+ * Reads target URLs from standard input, one per line, until end of input.
+ * Then probes them in parallel and writes one line per result to standard
+ * output as each completes, in ShardCoordinator.encode form, and finally
+ * a line of ShardCoordinator.END. Output without that last line means the
+ * worker failed. Standard output carries nothing else: anything else
+ * written to System.out, such as the checker's log, goes to standard
+ * error. Settings are the -D properties of ParallelSite.main, plus
+ * -DmaxThreads=N.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class ShardWorker {
+
+	/** Run this worker. */
+	public static final void main(String... aArgs) throws Exception {
+		int maxThreads = Integer.getInteger("maxThreads", ParallelSite.MAX_THREADS);
+		ParallelSite.setDefaultMaxConnections(maxThreads);
+		List<String> targets = new ArrayList<>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (!line.isEmpty()) {
+				targets.add(line);
+			}
+		}
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		System.setOut(System.err); // keep log lines out of the protocol
+		ParallelSite checker = new ParallelSite();
+		checker.setVirtualThreads(Boolean.getBoolean("virtualThreads"));
+		checker.setHeadProbes(Boolean.getBoolean("headProbes"));
+		checker.setBodyLimit(Long.getLong("bodyLimit", ParallelSite.BODY_LIMIT));
+		checker.setContentCheck(ContentCheck.fromProperties(System.getProperties()));
+		checker.setPhaseTiming(Boolean.getBoolean("phaseTiming"));
+		checker.setTimeouts(Integer.getInteger("connectTimeout", ParallelSite.CONNECT_TIMEOUT_MILLIS),
+			Integer.getInteger("readTimeout", ParallelSite.READ_TIMEOUT_MILLIS));
+		checker.setRunDeadline(Long.getLong("runDeadline", ParallelSite.RUN_DEADLINE_MILLIS));
+		checker.setConcurrency(maxThreads, maxThreads);
+		checker.setTargets(targets);
+		checker.setQuiet(true);
+		// Results are reported on this thread, so writes need no lock.
+		checker.setListener(result -> {
+			try {
+				out.write(ShardCoordinator.encode(result));
+				out.newLine();
+				out.flush();
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex); // coordinator gone
+			}
+		});
+		checker.pingAndReportEachWhenKnown();
+		out.write(ShardCoordinator.END);
+		out.newLine();
+		out.flush();
+		System.exit(0); // do not wait on probe threads past the deadline
+	}
+}
@@ -0,0 +1,169 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server for offline benchmarks of the probe strategies.
+ * <p>
+ * Every request waits for a delay drawn from a Latency distribution, then
+ * either drops the connection (errorRate), answers 503 (serverErrorRate),
+ * or answers 200 with a body of bodyBytes. HEAD requests get no body.
+ * The server listens on the loopback address only.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class StubServer {
+
+	/**
+	 * A latency distribution, in milliseconds. Parsed from specs such as
+	 * "fixed:20", "uniform:5:50", "exp:20" (mean 20) or "pareto:5:1.5"
+	 * (minimum 5, shape 1.5, a heavy tail).
+	 */
+	public static final class Latency {
+		public static Latency parse(String spec) {
+			String[] parts = spec.split(":");
+			double a = parts.length > 1 ? Double.parseDouble(parts[1]) : 0;
+			double b = parts.length > 2 ? Double.parseDouble(parts[2]) : 0;
+			switch (parts[0]) {
+			case "fixed":
+			case "uniform":
+			case "exp":
+			case "pareto":
+				return new Latency(spec, parts[0], a, b);
+			default:
+				throw new IllegalArgumentException("unknown latency distribution: " + spec);
+			}
+		}
+
+		/** Draw one delay, in milliseconds. */
+		public long nextMillis() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			switch (kind) {
+			case "uniform":
+				return (long) (a + random.nextDouble() * (b - a));
+			case "exp":
+				return (long) (-a * Math.log(1 - random.nextDouble()));
+			case "pareto":
+				return (long) Math.min(MAX_DELAY_MILLIS, a / Math.pow(1 - random.nextDouble(), 1 / b));
+			default:
+				return (long) a;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return spec;
+		}
+
+		private Latency(String spec, String kind, double a, double b) {
+			this.spec = spec;
+			this.kind = kind;
+			this.a = a;
+			this.b = b;
+		}
+
+		private final String spec;
+		private final String kind;
+		private final double a;
+		private final double b;
+	}
+
+	/** Longest delay drawn from a heavy tail. */
+	public static final long MAX_DELAY_MILLIS = 60000;
+
+	/**
+	 * Turn on TCP_NODELAY for the JDK server, unless set already. Without it
+	 * the server waits on Nagle, adding ~40 mS per reply. Call before the
+	 * first server is created, since the JDK reads the setting once.
+	 */
+	public static void configureDefaults() {
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	public StubServer(Latency latency, double errorRate, double serverErrorRate, int bodyBytes) {
+		this.latency = latency;
+		this.errorRate = errorRate;
+		this.serverErrorRate = serverErrorRate;
+		this.body = new byte[bodyBytes];
+	}
+
+	/** Start listening on a free loopback port. Return the base URL. */
+	public String start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+		server.createContext("/", this::handle);
+		server.setExecutor(handlers);
+		server.start();
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/** Stop the server at once. */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+		}
+		handlers.shutdownNow();
+	}
+
+	/** Requests received so far. */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "latency=" + latency + " errorRate=" + errorRate
+			+ " serverErrorRate=" + serverErrorRate + " body=" + body.length + " bytes";
+	}
+
+	// PRIVATE
+	private final Latency latency;
+	private final double errorRate;
+	private final double serverErrorRate;
+	private final byte[] body;
+	private final LongAdder requests = new LongAdder();
+	// Delays sleep on a handler thread, so handlers must not run out.
+	private final ExecutorService handlers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "StubServer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private HttpServer server;
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.increment();
+		try {
+			Thread.sleep(latency.nextMillis());
+		} catch (InterruptedException ex) {
+			exchange.close();
+			return;
+		}
+		double roll = ThreadLocalRandom.current().nextDouble();
+		if (roll < errorRate) {
+			exchange.close(); // no response, the client sees a broken connection
+			return;
+		}
+		int code = roll < errorRate + serverErrorRate ? 503 : 200;
+		boolean head = "HEAD".equals(exchange.getRequestMethod());
+		if (head) {
+			exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+		}
+		exchange.sendResponseHeaders(code, head ? -1 : body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			if (!head) {
+				out.write(body);
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel. Runs tasks after a delay, to within one tick,
+ * at a cost per task that does not grow with the number of tasks waiting.
+ * <p>
+ * The wheel is a ring of buckets, one per tick. A task due at tick t goes
+ * in bucket t mod the wheel size. Each tick the ticker thread visits one
+ * bucket and runs the tasks due by then; tasks due on a later turn of the
+ * wheel stay put. Scheduling is a queue append, picked up by the ticker at
+ * its next tick, so callers never contend on the buckets.
+ * <p>
+ * Tasks run on the ticker thread. They should only hand work off to an
+ * executor; a slow task delays every timer behind it.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class TimingWheel {
+	/** Default tick length. */
+	public static final long TICK_MILLIS = 10;
+	/** Default number of buckets, about 41 seconds per turn at TICK_MILLIS. */
+	public static final int WHEEL_SIZE = 4096;
+
+	public TimingWheel() {
+		this(TICK_MILLIS, WHEEL_SIZE);
+	}
+
+	/**
+	 * @param tickMillis timer resolution
+	 * @param wheelSize number of buckets, rounded up to a power of two
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public TimingWheel(long tickMillis, int wheelSize) {
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+		this.buckets = new ArrayDeque[size];
+		for (int i = 0; i < size; i++) {
+			buckets[i] = new ArrayDeque<>();
+		}
+		this.mask = size - 1;
+		this.ticker = new Thread(this::tick, "TimingWheel");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/** Run task once delayMillis have passed, give or take a tick. */
+	public void schedule(Runnable task, long delayMillis) {
+		long deadline = System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+		pending.incrementAndGet();
+		incoming.add(new Timer(deadline, task));
+	}
+
+	/** Tasks scheduled but not yet run. */
+	public long getPending() {
+		return pending.get();
+	}
+
+	/** Tasks run so far. */
+	public long getFired() {
+		return fired.get();
+	}
+
+	/** Stop the ticker. Tasks not yet run are dropped. */
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(ticker);
+	}
+
+	@Override
+	public String toString() {
+		return "buckets=" + buckets.length + " tick=" + TimeUnit.NANOSECONDS.toMillis(tickNanos)
+			+ " mS pending=" + getPending() + " fired=" + getFired();
+	}
+
+	// PRIVATE
+	private final long start = System.nanoTime();
+	private final long tickNanos;
+	private final ArrayDeque<Timer>[] buckets;
+	private final int mask;
+	private final Queue<Timer> incoming = new ConcurrentLinkedQueue<>();
+	private final AtomicLong pending = new AtomicLong();
+	private final AtomicLong fired = new AtomicLong();
+	private final Thread ticker;
+	private volatile boolean running = true;
+
+	private static final class Timer {
+		Timer(long deadlineNanos, Runnable task) {
+			this.deadlineNanos = deadlineNanos;
+			this.task = task;
+		}
+
+		final long deadlineNanos;
+		final Runnable task;
+	}
+
+	// The ticker loop. Tick n ends at start + (n + 1) * tickNanos; a late
+	// ticker catches up by visiting every bucket it missed.
+	private void tick() {
+		long tick = 0;
+		while (running) {
+			long wait;
+			while (running && (wait = start + (tick + 1) * tickNanos - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			if (!running) {
+				break;
+			}
+			transferIncoming(tick);
+			expire(tick);
+			tick++;
+		}
+	}
+
+	// Place newly scheduled timers. One already due goes in this tick's bucket.
+	private void transferIncoming(long tick) {
+		Timer timer;
+		while ((timer = incoming.poll()) != null) {
+			long due = Math.max(tick, timer.deadlineNanos / tickNanos);
+			buckets[(int) (due & mask)].add(timer);
+		}
+	}
+
+	// Run the timers in this tick's bucket that are due by the end of it.
+	private void expire(long tick) {
+		ArrayDeque<Timer> bucket = buckets[(int) (tick & mask)];
+		long end = (tick + 1) * tickNanos;
+		for (int n = bucket.size(); n > 0; n--) {
+			Timer timer = bucket.poll();
+			if (timer.deadlineNanos < end) {
+				pending.decrementAndGet();
+				fired.incrementAndGet();
+				try {
+					timer.task.run();
+				} catch (RuntimeException ex) {
+					// one bad task must not stop the wheel
+				}
+			} else {
+				bucket.add(timer); // due on a later turn
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * One TLS client context shared by every probe, so a new connection to a
+ * host seen before can resume its TLS session instead of doing a full
+ * handshake.
+ * <p>
+ * The context's session cache holds up to CACHE_SIZE sessions for
+ * SESSION_TIMEOUT_SECONDS. Its socket factory counts handshakes, and
+ * counts as resumed those whose session ID an earlier handshake already
+ * had. The IDs of the last CACHE_SIZE sessions are kept for that. A TLS
+ * 1.3 session resumes under the ID of a ticket the handshakes never show,
+ * but keeps its creation time, so a TLS 1.3 handshake with a new ID
+ * counts as resumed if its session was created before the socket.
+ * Handshake events arrive on their own thread, so the counts may trail the
+ * probes slightly.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class TlsSessions {
+	/** Most TLS sessions cached. */
+	public static final int CACHE_SIZE = 10000;
+	/** How long a cached session may be resumed. */
+	public static final int SESSION_TIMEOUT_SECONDS = 3600;
+
+	public TlsSessions() {
+		SSLContext context;
+		try {
+			context = SSLContext.getInstance("TLS");
+			context.init(null, null, null);
+		} catch (GeneralSecurityException ex) {
+			throw new IllegalStateException("no TLS context", ex);
+		}
+		context.getClientSessionContext().setSessionCacheSize(CACHE_SIZE);
+		context.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+		factory = new CountingFactory(context.getSocketFactory());
+	}
+
+	/** The socket factory every TLS connection should use. */
+	public SSLSocketFactory getSocketFactory() {
+		return factory;
+	}
+
+	/** Handshakes completed. */
+	public long getHandshakes() {
+		return handshakes.sum();
+	}
+
+	/** Handshakes that resumed a cached session. */
+	public long getResumed() {
+		return resumed.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "handshakes=" + getHandshakes() + " resumed=" + getResumed();
+	}
+
+	// PRIVATE
+	private final SSLSocketFactory factory;
+	private final LongAdder handshakes = new LongAdder();
+	private final LongAdder resumed = new LongAdder();
+	// IDs of sessions seen, oldest first, bounded like the session cache.
+	private final Set<ByteBuffer> sessionIds = Collections.newSetFromMap(
+		Collections.synchronizedMap(new LinkedHashMap<ByteBuffer, Boolean>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		}));
+
+	// Passes every call to the context's factory, and watches each socket's handshake.
+	private final class CountingFactory extends SSLSocketFactory {
+		CountingFactory(SSLSocketFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return delegate.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return delegate.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return watch(delegate.createSocket());
+		}
+
+		@Override
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+			return watch(delegate.createSocket(socket, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return watch(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+				throws IOException {
+			return watch(delegate.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return watch(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+				throws IOException {
+			return watch(delegate.createSocket(address, port, localAddress, localPort));
+		}
+
+		private Socket watch(Socket socket) {
+			if (socket instanceof SSLSocket) {
+				long created = System.currentTimeMillis();
+				((SSLSocket) socket).addHandshakeCompletedListener((HandshakeCompletedEvent event) -> {
+					handshakes.increment();
+					SSLSession session = event.getSession();
+					byte[] id = session.getId();
+					boolean seen = id.length > 0 && !sessionIds.add(ByteBuffer.wrap(id.clone()));
+					if (seen || "TLSv1.3".equals(session.getProtocol()) && session.getCreationTime() < created) {
+						resumed.increment();
+					}
+				});
+			}
+			return socket;
+		}
+
+		private final SSLSocketFactory delegate;
+	}
+}
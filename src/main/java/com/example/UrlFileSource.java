@@ -0,0 +1,170 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams target URLs from a file, one per line, through a bounded queue.
+ * <p>
+ * A reader thread pulls the file through a FileChannel in CHUNK_SIZE
+ * pieces, splits it into lines, and hands each line to a queue of
+ * QUEUE_SIZE entries. The reader blocks when the queue is full, so memory
+ * stays flat whatever the file size, and probing starts as soon as the
+ * first line is read. Blank lines and lines starting with '#' are skipped.
+ * <p>
+ * The source can be iterated once. The iterator blocks until the next line
+ * is ready, which suits the backpressured strategies.
+ * <p>
+ * @author <a href="mailto:dan@danbecker.info">Dan Becker </a>.
+ */
+public final class UrlFileSource implements Iterable<String>, Closeable {
+	/** Bytes read from the file at a time. */
+	public static final int CHUNK_SIZE = 64 * 1024;
+	/** Lines read ahead of the probes. */
+	public static final int QUEUE_SIZE = 1024;
+
+	public UrlFileSource(Path file) {
+		this.file = file;
+	}
+
+	/** Start the reader thread, and return the only iterator. */
+	@Override
+	public synchronized Iterator<String> iterator() {
+		if (reader != null) {
+			throw new IllegalStateException("UrlFileSource can be iterated once");
+		}
+		reader = new Thread(this::readFile, "UrlFileSource " + file.getFileName());
+		reader.setDaemon(true);
+		reader.start();
+		return new Iterator<String>() {
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = queue.take();
+						ended = next == END;
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						next = END;
+					}
+				}
+				if (next == END && failure != null) {
+					throw new UncheckedIOException(failure);
+				}
+				return next != END;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				String line = next;
+				next = null;
+				return line;
+			}
+
+			private String next;
+		};
+	}
+
+	/** Lines handed to the queue so far. */
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Read the rest of the file without handing it out, so getLineCount
+	 * counts every line. For a run that stopped before the end.
+	 */
+	public void skipRest() throws InterruptedException {
+		if (reader == null) {
+			return; // never iterated, so no file is being read
+		}
+		// The iterator may still be taking lines on another thread, so the
+		// END it takes ends this loop too.
+		while (!ended) {
+			if (queue.poll(SKIP_POLL_MILLIS, TimeUnit.MILLISECONDS) == END) {
+				ended = true;
+			}
+		}
+	}
+
+	/** Stop the reader thread. */
+	@Override
+	public synchronized void close() {
+		if (reader != null) {
+			reader.interrupt();
+		}
+	}
+
+	// PRIVATE
+	// Marks the end of the file. Compared by identity.
+	private static final String END = new String("END");
+	private static final long SKIP_POLL_MILLIS = 100;
+	private final Path file;
+	private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private volatile Thread reader;
+	private volatile IOException failure;
+	private volatile long lineCount;
+	private volatile boolean ended;
+
+	// Reader thread: chunk the file into lines and fill the queue.
+	private void readFile() {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+			byte[] line = new byte[256];
+			int length = 0;
+			while (channel.read(chunk) >= 0) {
+				chunk.flip();
+				while (chunk.hasRemaining()) {
+					byte b = chunk.get();
+					if (b == '\n') {
+						offer(line, length);
+						length = 0;
+					} else {
+						if (length == line.length) {
+							line = Arrays.copyOf(line, 2 * line.length);
+						}
+						line[length++] = b;
+					}
+				}
+				chunk.clear();
+			}
+			offer(line, length);
+		} catch (IOException ex) {
+			failure = ex;
+		} catch (InterruptedException ex) {
+			queue.clear(); // closed early, nobody reads the rest
+		}
+		try {
+			queue.put(END);
+		} catch (InterruptedException ex) {
+			queue.clear();
+			queue.offer(END);
+		}
+	}
+
+	private void offer(byte[] line, int length) throws InterruptedException {
+		if (length > 0 && line[length - 1] == '\r') {
+			length--;
+		}
+		String url = new String(line, 0, length, StandardCharsets.UTF_8).trim();
+		if (!url.isEmpty() && !url.startsWith("#")) {
+			queue.put(url);
+			lineCount++;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConsistentHashTest {
+	private static final int KEYS = 10000;
+
+	@Test
+	public void emptyRingHasNoNode() {
+		assertEquals(-1, new ConsistentHash(Collections.<Integer>emptyList(), 10).nodeFor("a.example"));
+	}
+
+	@Test
+	public void sameKeySameNode() {
+		ConsistentHash first = new ConsistentHash(Arrays.asList(0, 1, 2), 160);
+		ConsistentHash second = new ConsistentHash(Arrays.asList(2, 1, 0), 160);
+		for (int i = 0; i < KEYS; i++) {
+			String key = "host" + i + ".example";
+			assertEquals(first.nodeFor(key), second.nodeFor(key));
+		}
+	}
+
+	@Test
+	public void keysSpreadOverEveryNode() {
+		ConsistentHash ring = new ConsistentHash(Arrays.asList(0, 1, 2, 3), 160);
+		int[] counts = new int[4];
+		for (int i = 0; i < KEYS; i++) {
+			counts[ring.nodeFor("host" + i + ".example")]++;
+		}
+		for (int count : counts) {
+			// An even share is 2500.
+			assertTrue(Arrays.toString(counts), count > 1500 && count < 3500);
+		}
+	}
+
+	@Test
+	public void removingNodeMovesOnlyItsKeys() {
+		ConsistentHash before = new ConsistentHash(Arrays.asList(0, 1, 2, 3), 160);
+		ConsistentHash after = new ConsistentHash(Arrays.asList(0, 1, 3), 160);
+		Map<String, Integer> owners = new HashMap<>();
+		for (int i = 0; i < KEYS; i++) {
+			String key = "host" + i + ".example";
+			owners.put(key, before.nodeFor(key));
+		}
+		for (Map.Entry<String, Integer> owner : owners.entrySet()) {
+			int now = after.nodeFor(owner.getKey());
+			if (owner.getValue() == 2) {
+				assertTrue(now != 2);
+			} else {
+				assertEquals(owner.getValue().intValue(), now);
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+import com.example.ContentCheck.Verdict;
+
+public class ContentCheckTest {
+
+	@Test
+	public void keywordFoundAcrossEveryChunkBoundary() {
+		String body = "<html><body>status: all systems operational</body></html>";
+		String keyword = "systems operational";
+		int at = body.indexOf(keyword);
+		// Split the body at every point inside the keyword, and in chunks of every size.
+		for (int split = at; split <= at + keyword.length(); split++) {
+			assertEquals("split at " + split, Verdict.PASSED,
+				scan(new ContentCheck(keyword, null, ContentCheck.NONE, ContentCheck.NONE), body, split));
+		}
+		for (int chunk = 1; chunk <= body.length(); chunk++) {
+			assertEquals("chunks of " + chunk, Verdict.PASSED,
+				scanChunks(new ContentCheck(keyword, null, ContentCheck.NONE, ContentCheck.NONE), body, chunk));
+		}
+	}
+
+	@Test
+	public void keywordWithRepeatedPrefixFallsBackAcrossChunks() {
+		// After "aaa", a fourth "a" must fall back to "aaa", not restart, even
+		// when the mismatch comes in the next chunk.
+		String keyword = "aaab";
+		for (int chunk = 1; chunk <= 6; chunk++) {
+			assertEquals("chunks of " + chunk, Verdict.PASSED,
+				scanChunks(new ContentCheck(keyword, null, ContentCheck.NONE, ContentCheck.NONE), "xaaaaab", chunk));
+			assertEquals("chunks of " + chunk, Verdict.MISSING,
+				scanChunks(new ContentCheck(keyword, null, ContentCheck.NONE, ContentCheck.NONE), "xaabaab", chunk));
+		}
+	}
+
+	@Test
+	public void missingKeywordFailsAtEnd() {
+		ContentCheck check = new ContentCheck("absent", null, ContentCheck.NONE, ContentCheck.NONE);
+		assertEquals(Verdict.MISSING, scanChunks(check, "nothing to see here", 4));
+	}
+
+	@Test
+	public void patternFoundAcrossWindowShift() {
+		// Put the match where the window has to slide to hold it whole.
+		StringBuilder body = new StringBuilder();
+		while (body.length() < 2 * ContentCheck.MAX_MATCH - 5) {
+			body.append('.');
+		}
+		body.append("build-4711-ok");
+		ContentCheck check = new ContentCheck(null, Pattern.compile("build-\\d+-ok"),
+			ContentCheck.NONE, ContentCheck.NONE);
+		for (int chunk : new int[] { 1, 7, 1000, ContentCheck.MAX_MATCH, 3 * ContentCheck.MAX_MATCH }) {
+			assertEquals("chunks of " + chunk, Verdict.PASSED, scanChunks(check, body.toString(), chunk));
+		}
+	}
+
+	@Test
+	public void keywordAndPatternBothNeeded() {
+		ContentCheck check = new ContentCheck("hello", Pattern.compile("v\\d"), ContentCheck.NONE, ContentCheck.NONE);
+		assertEquals(Verdict.PASSED, scanChunks(check, "hello v2", 3));
+		assertEquals(Verdict.MISSING, scanChunks(check, "hello there", 3));
+		assertEquals(Verdict.MISSING, scanChunks(check, "goodbye v2", 3));
+	}
+
+	@Test
+	public void sizeLimitFromDeclaredLengthOrBytesRead() {
+		ContentCheck check = new ContentCheck(null, null, 10, ContentCheck.NONE);
+		assertEquals(Verdict.TOO_LARGE, check.newScan().begin(11));
+		assertEquals(Verdict.PASSED, check.newScan().begin(10));
+		ContentCheck.Scan scan = check.newScan();
+		assertNull(scan.begin(-1));
+		byte[] bytes = "0123456789x".getBytes(StandardCharsets.US_ASCII);
+		assertNull(scan.update(bytes, 0, 10));
+		assertEquals(Verdict.TOO_LARGE, scan.update(bytes, 10, 1));
+	}
+
+	@Test
+	public void foundKeywordDecidesAtOnceWithoutChecksum() {
+		ContentCheck check = new ContentCheck("ok", null, ContentCheck.NONE, ContentCheck.NONE);
+		ContentCheck.Scan scan = check.newScan();
+		assertNull(scan.begin(-1));
+		byte[] bytes = "all ok and more".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(Verdict.PASSED, scan.update(bytes, 0, 6));
+	}
+
+	@Test
+	public void checksumNeedsWholeBody() {
+		byte[] bytes = "checksummed body".getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		ContentCheck good = new ContentCheck("body", null, ContentCheck.NONE, crc.getValue());
+		ContentCheck.Scan scan = good.newScan();
+		assertNull(scan.begin(bytes.length));
+		assertNull(scan.update(bytes, 0, bytes.length));
+		assertEquals(Verdict.PASSED, scan.finish());
+		ContentCheck bad = new ContentCheck("body", null, ContentCheck.NONE, crc.getValue() ^ 1);
+		assertEquals(Verdict.CHECKSUM, scanChunks(bad, "checksummed body", 5));
+	}
+
+	@Test
+	public void fromPropertiesNamesBadProperty() {
+		assertNull(ContentCheck.fromProperties(new Properties()));
+		for (String[] bad : new String[][] {
+				{ "expectRegex", "(" }, { "maxBodyBytes", "-1" }, { "maxBodyBytes", "lots" },
+				{ "expectCrc32", "100000000" } }) {
+			Properties properties = new Properties();
+			properties.setProperty(bad[0], bad[1]);
+			try {
+				ContentCheck.fromProperties(properties);
+				fail(bad[0] + "=" + bad[1]);
+			} catch (IllegalArgumentException ex) {
+				assertTrue(ex.getMessage(), ex.getMessage().startsWith(bad[0]));
+			}
+		}
+	}
+
+	// Feed body in two chunks, split at split, with no declared length.
+	private static Verdict scan(ContentCheck check, String body, int split) {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		ContentCheck.Scan scan = check.newScan();
+		Verdict verdict = scan.begin(-1);
+		if (verdict == null) {
+			verdict = scan.update(bytes, 0, split);
+		}
+		if (verdict == null) {
+			verdict = scan.update(bytes, split, bytes.length - split);
+		}
+		return verdict != null ? verdict : scan.finish();
+	}
+
+	// Feed body in chunks of chunk bytes, with its declared length.
+	private static Verdict scanChunks(ContentCheck check, String body, int chunk) {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		ContentCheck.Scan scan = check.newScan();
+		Verdict verdict = scan.begin(bytes.length);
+		for (int at = 0; verdict == null && at < bytes.length; at += chunk) {
+			verdict = scan.update(bytes, at, Math.min(chunk, bytes.length - at));
+		}
+		return verdict != null ? verdict : scan.finish();
+	}
+}
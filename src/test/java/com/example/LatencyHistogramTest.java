@@ -0,0 +1,121 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void emptyReportsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMeanNanos());
+		assertEquals(0, histogram.getPercentileNanos(0.99));
+		assertEquals(0, histogram.getMaxNanos());
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 2 * LatencyHistogram.SUB_BUCKETS; value++) {
+			histogram.record(value);
+		}
+		long n = 2 * LatencyHistogram.SUB_BUCKETS;
+		for (long rank = 1; rank <= n; rank++) {
+			assertEquals(rank, histogram.getPercentileNanos((double) rank / n));
+		}
+	}
+
+	@Test
+	public void percentileIsUpperEdgeWithinOneSubBucket() {
+		for (long value = 1; value < LatencyHistogram.MAX_NANOS; value = value * 3 / 2 + 1) {
+			for (long probe : new long[] { value - 1, value, value + 1 }) {
+				if (probe < 0) {
+					continue;
+				}
+				// A second, larger value keeps the exact max from capping the edge.
+				LatencyHistogram histogram = new LatencyHistogram();
+				histogram.record(probe);
+				histogram.record(LatencyHistogram.MAX_NANOS);
+				long edge = histogram.getPercentileNanos(0.5);
+				assertTrue(probe + " reported as " + edge, edge >= probe);
+				assertTrue(probe + " reported as " + edge,
+					edge - probe <= probe / LatencyHistogram.SUB_BUCKETS);
+			}
+		}
+	}
+
+	@Test
+	public void powersOfTwoStartTheirBucket() {
+		for (int bit = 5; bit < 40; bit++) {
+			long value = 1L << bit;
+			LatencyHistogram histogram = new LatencyHistogram();
+			histogram.record(value);
+			histogram.record(LatencyHistogram.MAX_NANOS);
+			long width = value / LatencyHistogram.SUB_BUCKETS;
+			assertEquals(value + width - 1, histogram.getPercentileNanos(0.5));
+		}
+	}
+
+	@Test
+	public void percentileNeverExceedsMax() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1000001);
+		assertEquals(1000001, histogram.getPercentileNanos(0.5));
+		assertEquals(1000001, histogram.getPercentileNanos(1.0));
+	}
+
+	@Test
+	public void percentilesFollowRank() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500500, histogram.getMeanNanos());
+		assertEquals(1000000, histogram.getMaxNanos());
+		long p50 = histogram.getPercentileNanos(0.50);
+		long p99 = histogram.getPercentileNanos(0.99);
+		assertTrue("p50 " + p50, p50 >= 500000 && p50 <= 500000 + 500000 / LatencyHistogram.SUB_BUCKETS);
+		assertTrue("p99 " + p99, p99 >= 990000 && p99 <= 1000000);
+		long last = 0;
+		for (double fraction = 0.01; fraction <= 1.0; fraction += 0.01) {
+			long value = histogram.getPercentileNanos(fraction);
+			assertTrue(value >= last);
+			last = value;
+		}
+	}
+
+	@Test
+	public void outOfRangeValuesAreClamped() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		assertEquals(0, histogram.getPercentileNanos(1.0));
+		long huge = LatencyHistogram.MAX_NANOS * 4;
+		histogram.record(huge);
+		assertEquals(2, histogram.getCount());
+		assertEquals(huge, histogram.getMaxNanos());
+		assertEquals(LatencyHistogram.MAX_NANOS, histogram.getPercentileNanos(1.0));
+	}
+
+	@Test
+	public void addMergesCountsAndMax() {
+		LatencyHistogram low = new LatencyHistogram();
+		LatencyHistogram high = new LatencyHistogram();
+		for (int i = 0; i < 90; i++) {
+			low.record(10);
+		}
+		for (int i = 0; i < 10; i++) {
+			high.record(20);
+		}
+		low.add(high);
+		assertEquals(100, low.getCount());
+		assertEquals(20, low.getMaxNanos());
+		assertEquals(11, low.getMeanNanos());
+		assertEquals(10, low.getPercentileNanos(0.90));
+		assertEquals(20, low.getPercentileNanos(0.91));
+		assertEquals(10, high.getCount());
+	}
+}
@@ -0,0 +1,168 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelSiteTest {
+	private static final int TARGETS = 50;
+	private static final long DEADLINE_MILLIS = 300;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private StubServer server;
+	private ParallelSite checker;
+	private final List<String> targets = new ArrayList<>();
+	private final AtomicInteger reported = new AtomicInteger();
+
+	@Before
+	public void start() throws Exception {
+		StubServer.configureDefaults();
+		server = new StubServer(StubServer.Latency.parse("fixed:0"), 0, 0, 16);
+		String base = server.start();
+		for (int i = 0; i < TARGETS; i++) {
+			targets.add(base + "/target" + i);
+		}
+		checker = new ParallelSite();
+		checker.setTargets(targets);
+		checker.setConcurrency(2, 2);
+		checker.setQuiet(true);
+		checker.setListener(result -> reported.incrementAndGet());
+	}
+
+	@After
+	public void stop() {
+		server.stop();
+	}
+
+	@Test
+	public void adaptiveProbesEveryTargetWithinDeadline() throws Exception {
+		checker.pingAndReportAdaptive();
+		assertEquals(TARGETS, reported.get());
+		assertEquals(TARGETS, checker.getLatencies().getRun().getCount());
+	}
+
+	@Test
+	public void adaptiveStartsNoProbeAfterDeadline() throws Exception {
+		long[] requestsAtDeadline = holdFirstReportPastDeadline();
+		checker.pingAndReportAdaptive();
+		assertEquals(requestsAtDeadline[0], server.getRequests());
+		assertTrue(reported.get() < TARGETS);
+	}
+
+	@Test
+	public void completableStartsNoProbeAfterDeadline() throws Exception {
+		long[] requestsAtDeadline = holdFirstReportPastDeadline();
+		checker.pingAndReportCompletable();
+		assertEquals(requestsAtDeadline[0], server.getRequests());
+		assertTrue(reported.get() < TARGETS);
+	}
+
+	@Test
+	public void reactiveStopsAtDeadline() throws Exception {
+		holdFirstReportPastDeadline();
+		checker.pingAndReportReactive(targets);
+		assertTrue(reported.get() < TARGETS);
+	}
+
+	@Test
+	public void fileRunIgnoresRunDeadline() throws Exception {
+		Path file = folder.newFile("targets.txt").toPath();
+		Files.write(file, targets);
+		checker.setRunDeadline(1);
+		checker.pingAndReportFromFile(file, 0);
+		assertEquals(TARGETS, reported.get());
+	}
+
+	@Test
+	public void fileRunStopsAtItsOwnDeadline() throws Exception {
+		Path file = folder.newFile("targets.txt").toPath();
+		Files.write(file, targets);
+		holdFirstReportPastDeadline();
+		checker.setRunDeadline(0);
+		checker.pingAndReportFromFile(file, DEADLINE_MILLIS);
+		assertTrue(reported.get() < TARGETS);
+	}
+
+	@Test
+	public void byDeadlineCountsDeadlinesInMetrics() throws Exception {
+		checker.pingAndReportByDeadline();
+		ProbeMetrics metrics = checker.getMetrics();
+		assertEquals(TARGETS, reported.get());
+		assertEquals(TARGETS, metrics.getDeadlinesMet() + metrics.getDeadlinesMissed());
+		assertTrue(metrics.toString(), metrics.toString().contains("probe_deadlines_met "));
+	}
+
+	@Test
+	public void phaseTimingReadsEveryBody() throws Exception {
+		AtomicInteger phased = new AtomicInteger();
+		checker.setPhaseTiming(true);
+		checker.setListener(result -> {
+			if (result.success && result.phased && result.responseCode == 200) {
+				phased.incrementAndGet();
+			}
+		});
+		checker.pingAndReportPooled();
+		assertEquals(TARGETS, phased.get());
+	}
+
+	@Test
+	public void pooledReportsEachTargetWithItsUrl() throws Exception {
+		Set<String> urls = ConcurrentHashMap.newKeySet();
+		checker.setListener(result -> {
+			assertTrue(result.url, result.success);
+			urls.add(result.url);
+		});
+		checker.pingAndReportPooled();
+		assertEquals(new HashSet<>(targets), urls);
+	}
+
+	@Test
+	public void monitorReportsOnCallingThread() throws Exception {
+		Set<Thread> reporters = ConcurrentHashMap.newKeySet();
+		checker.setConcurrency(4, 4);
+		checker.setListener(result -> {
+			reporters.add(Thread.currentThread());
+			reported.incrementAndGet();
+		});
+		checker.monitor(50, 0.1, 500);
+		assertTrue(reported.get() >= TARGETS);
+		assertEquals(Collections.singleton(Thread.currentThread()), reporters);
+		assertEquals(reported.get(), checker.getLatencies().getRun().getCount());
+	}
+
+	// Set a short run deadline, and have the first report hold the reporting
+	// thread past it while the probes in flight finish, so slots are free
+	// once it returns. Return where the server's request count is then kept.
+	private long[] holdFirstReportPastDeadline() {
+		long[] requestsAtDeadline = { -1 };
+		checker.setRunDeadline(DEADLINE_MILLIS);
+		checker.setListener(result -> {
+			if (reported.incrementAndGet() == 1) {
+				try {
+					Thread.sleep(2 * DEADLINE_MILLIS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				requestsAtDeadline[0] = server.getRequests();
+			}
+		});
+		return requestsAtDeadline;
+	}
+}
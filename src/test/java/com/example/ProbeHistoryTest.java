@@ -0,0 +1,112 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.example.ParallelSite.PingResult;
+
+public class ProbeHistoryTest {
+	private static final String URL = "http://a.example/";
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	// A recent time on an hour boundary.
+	private static final long BASE = 1700000000000L / HOUR * HOUR;
+
+	@Test
+	public void samplesWrapAroundKeepingNewest() {
+		ProbeHistory history = new ProbeHistory(4, 60, 48, 10);
+		for (int i = 0; i < 10; i++) {
+			history.record(result(URL, true, 200, i), BASE + i);
+		}
+		List<Long> latencies = new ArrayList<>();
+		List<Long> times = new ArrayList<>();
+		history.forEachSample(URL, (time, code, success, micros) -> {
+			times.add(time - BASE);
+			latencies.add(micros);
+		});
+		assertEquals(Arrays.asList(6L, 7L, 8L, 9L), times);
+		assertEquals(Arrays.asList(6000L, 7000L, 8000L, 9000L), latencies);
+	}
+
+	@Test
+	public void minutesRollOverAndOldestAreDropped() {
+		ProbeHistory history = new ProbeHistory(4, 3, 48, 10);
+		for (int minute = 0; minute < 5; minute++) {
+			history.record(result(URL, true, 200, 1), BASE + minute * MINUTE);
+			history.record(result(URL, true, 200, 3), BASE + minute * MINUTE + 59999);
+		}
+		List<String> rollups = minutes(history);
+		// Only the last three minutes fit; earlier turns of each slot were cleared.
+		assertEquals(Arrays.asList("2 2 0 4000 3000", "3 2 0 4000 3000", "4 2 0 4000 3000"), rollups);
+	}
+
+	@Test
+	public void resultTooOldForRingIsIgnored() {
+		ProbeHistory history = new ProbeHistory(4, 3, 48, 10);
+		history.record(result(URL, true, 200, 1), BASE + 5 * MINUTE);
+		history.record(result(URL, true, 200, 1), BASE + 2 * MINUTE);
+		history.record(result(URL, true, 200, 1), BASE + 3 * MINUTE);
+		assertEquals(Arrays.asList("3 1 0 1000 1000", "5 1 0 1000 1000"), minutes(history));
+	}
+
+	@Test
+	public void failuresAreCountedButNotTimed() {
+		ProbeHistory history = new ProbeHistory(4, 60, 48, 10);
+		history.record(result(URL, true, 200, 2), BASE);
+		history.record(result(URL, false, 503, 900), BASE + 1);
+		history.record(result(URL, false, 0, 0), BASE + 2);
+		assertEquals(Arrays.asList("0 3 2 2000 2000"), minutes(history));
+	}
+
+	@Test
+	public void hoursAddUpTheirMinutes() {
+		ProbeHistory history = new ProbeHistory(4, 60, 2, 10);
+		for (int hour = 0; hour < 3; hour++) {
+			for (int minute = 0; minute < 60; minute += 20) {
+				history.record(result(URL, true, 200, minute + 1), BASE + hour * HOUR + minute * MINUTE);
+			}
+		}
+		List<String> rollups = new ArrayList<>();
+		history.forEachHour(URL, (start, count, failures, total, max) ->
+			rollups.add((start - BASE) / HOUR + " " + count + " " + total + " " + max));
+		assertEquals(Arrays.asList("1 3 63000 41000", "2 3 63000 41000"), rollups);
+	}
+
+	@Test
+	public void urlsBeyondLimitAreNotKept() {
+		ProbeHistory history = new ProbeHistory(4, 60, 48, 2);
+		history.record(result("http://a.example/", true, 200, 1), BASE);
+		history.record(result("http://b.example/", true, 200, 1), BASE);
+		history.record(result("http://c.example/", true, 200, 1), BASE);
+		history.record(result("http://a.example/", true, 200, 1), BASE + 1);
+		assertEquals(2, history.getUrls());
+		int[] samples = new int[1];
+		history.forEachSample("http://c.example/", (time, code, success, micros) -> samples[0]++);
+		assertEquals(0, samples[0]);
+		assertTrue(history.toString(), history.toString().startsWith("urls=2 "));
+	}
+
+	// Minute rollups of URL as "minute count failures total max".
+	private static List<String> minutes(ProbeHistory history) {
+		List<String> rollups = new ArrayList<>();
+		history.forEachMinute(URL, (start, count, failures, total, max) ->
+			rollups.add((start - BASE) / MINUTE + " " + count + " " + failures + " " + total + " " + max));
+		return rollups;
+	}
+
+	private static PingResult result(String url, boolean success, int responseCode, long timingMillis) {
+		PingResult result = new PingResult();
+		result.url = url;
+		result.success = success;
+		result.responseCode = responseCode;
+		result.timingNanos = TimeUnit.MILLISECONDS.toNanos(timingMillis);
+		return result;
+	}
+}
@@ -0,0 +1,112 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.example.ParallelSite.PingResult;
+
+public class ResultLogTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recordsReadBackAsWritten() throws IOException {
+		Path dir = folder.getRoot().toPath().resolve("log");
+		try (ResultLog log = new ResultLog(dir)) {
+			log.append(result("http://a.example/", true, 200, 1234567), 1000);
+			PingResult phased = result("http://b.example/x", false, 503, 89);
+			phased.phased = true;
+			phased.dnsNanos = 1;
+			phased.connectNanos = 2;
+			phased.tlsNanos = 3;
+			phased.firstByteNanos = 4;
+			phased.bodyNanos = 5;
+			log.append(phased, 2000);
+			log.append(result("http://a.example/", true, 301, 7000000), 3000);
+			assertEquals(3, log.getAppended());
+		}
+		List<String> lines = new ArrayList<>();
+		List<Long> times = new ArrayList<>();
+		new ResultLogReader(dir).scan((time, result) -> {
+			times.add(time);
+			lines.add(result.url + " " + result.success + " " + result.responseCode + " "
+				+ result.timingNanos + " " + result.timing + " " + result.phased + " "
+				+ result.dnsNanos + " " + result.connectNanos + " " + result.tlsNanos + " "
+				+ result.firstByteNanos + " " + result.bodyNanos);
+		});
+		assertEquals(3, lines.size());
+		assertEquals(Long.valueOf(1000), times.get(0));
+		assertEquals(Long.valueOf(3000), times.get(2));
+		assertEquals("http://a.example/ true 200 1234567 1 false 0 0 0 0 0", lines.get(0));
+		assertEquals("http://b.example/x false 503 89 0 true 1 2 3 4 5", lines.get(1));
+		assertEquals("http://a.example/ true 301 7000000 7 false 0 0 0 0 0", lines.get(2));
+	}
+
+	@Test
+	public void reopenedLogAppendsAfterExistingRecords() throws IOException {
+		Path dir = folder.getRoot().toPath().resolve("log");
+		try (ResultLog log = new ResultLog(dir)) {
+			log.append(result("http://a.example/", true, 200, 10), 1000);
+			log.append(result("http://b.example/", true, 200, 20), 2000);
+		}
+		try (ResultLog log = new ResultLog(dir)) {
+			log.append(result("http://b.example/", true, 200, 30), 3000);
+			log.append(result("http://c.example/", false, 0, 0), 4000);
+			assertEquals(2, log.getAppended());
+		}
+		List<String> urls = new ArrayList<>();
+		ResultLogReader reader = new ResultLogReader(dir);
+		reader.scan((time, result) -> urls.add(time + " " + result.url));
+		assertEquals(1, reader.getSegments());
+		assertEquals(4, urls.size());
+		assertEquals("2000 http://b.example/", urls.get(1));
+		assertEquals("3000 http://b.example/", urls.get(2));
+		assertEquals("4000 http://c.example/", urls.get(3));
+	}
+
+	@Test
+	public void scanKeepsToTimeRange() throws IOException {
+		Path dir = folder.getRoot().toPath().resolve("log");
+		try (ResultLog log = new ResultLog(dir)) {
+			for (long time = 1000; time <= 5000; time += 1000) {
+				log.append(result("http://a.example/", true, 200, time), time);
+			}
+		}
+		List<Long> times = new ArrayList<>();
+		new ResultLogReader(dir).scan(2000, 4000, (time, result) -> times.add(time));
+		assertEquals(2, times.size());
+		assertEquals(Long.valueOf(2000), times.get(0));
+		assertEquals(Long.valueOf(3000), times.get(1));
+	}
+
+	@Test
+	public void appendAfterCloseFails() throws IOException {
+		ResultLog log = new ResultLog(folder.getRoot().toPath().resolve("log"));
+		log.close();
+		try {
+			log.append(result("http://a.example/", true, 200, 1), 1000);
+			fail("append after close");
+		} catch (IOException ex) {
+			assertFalse(ex.getMessage().isEmpty());
+		}
+	}
+
+	private static PingResult result(String url, boolean success, int responseCode, long timingNanos) {
+		PingResult result = new PingResult();
+		result.url = url;
+		result.success = success;
+		result.responseCode = responseCode;
+		result.timingNanos = timingNanos;
+		return result;
+	}
+}
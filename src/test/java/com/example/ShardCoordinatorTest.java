@@ -0,0 +1,52 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.example.ParallelSite.PingResult;
+
+public class ShardCoordinatorTest {
+
+	@Test
+	public void decodeReadsWhatEncodeWrote() {
+		PingResult result = new PingResult();
+		result.url = "http://a.example/x?y=1";
+		result.success = true;
+		result.responseCode = 200;
+		result.timingNanos = 12345678;
+		result.dnsNanos = 2000000;
+		result.phased = true;
+		result.connectNanos = 3;
+		result.tlsNanos = 4;
+		result.firstByteNanos = 5;
+		result.bodyNanos = 6;
+		PingResult decoded = ShardCoordinator.decode(ShardCoordinator.encode(result));
+		assertEquals(result.url, decoded.url);
+		assertTrue(decoded.success);
+		assertEquals(200, decoded.responseCode);
+		assertEquals(12345678, decoded.timingNanos);
+		assertEquals(12, decoded.timing);
+		assertEquals(2, decoded.dnsTiming);
+		assertTrue(decoded.phased);
+		assertEquals(3, decoded.connectNanos);
+		assertEquals(4, decoded.tlsNanos);
+		assertEquals(5, decoded.firstByteNanos);
+		assertEquals(6, decoded.bodyNanos);
+	}
+
+	@Test
+	public void decodeRejectsOtherLines() {
+		for (String line : new String[] { "", "Deadline passed. Probes cancelled=3",
+				"http://a.example/\t1\t200\tlots\t0\t0\t0\t0\t0\t0" }) {
+			try {
+				ShardCoordinator.decode(line);
+				fail(line);
+			} catch (IllegalArgumentException ex) {
+				assertTrue(ex.getMessage(), ex.getMessage().endsWith(line));
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TimingWheelTest {
+	private TimingWheel wheel;
+
+	@After
+	public void shutdown() {
+		if (wheel != null) {
+			wheel.shutdown();
+		}
+	}
+
+	@Test
+	public void runsNoEarlierThanDelay() throws InterruptedException {
+		wheel = new TimingWheel(5, 64);
+		CountDownLatch ran = new CountDownLatch(1);
+		long[] at = new long[1];
+		long scheduled = System.nanoTime();
+		wheel.schedule(() -> {
+			at[0] = System.nanoTime();
+			ran.countDown();
+		}, 50);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(at[0] - scheduled) >= 50);
+		assertEquals(0, wheel.getPending());
+		assertEquals(1, wheel.getFired());
+	}
+
+	@Test
+	public void runsInDeadlineOrder() throws InterruptedException {
+		wheel = new TimingWheel(5, 64);
+		List<Integer> order = new CopyOnWriteArrayList<>();
+		CountDownLatch ran = new CountDownLatch(3);
+		wheel.schedule(() -> { order.add(3); ran.countDown(); }, 90);
+		wheel.schedule(() -> { order.add(1); ran.countDown(); }, 10);
+		wheel.schedule(() -> { order.add(2); ran.countDown(); }, 50);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(1, 2, 3), order);
+	}
+
+	@Test
+	public void delayPastOneTurnWaitsForItsTurn() throws InterruptedException {
+		// 8 buckets of 5 mS turn in 40 mS, so 100 mS lands on a later turn.
+		wheel = new TimingWheel(5, 8);
+		CountDownLatch ran = new CountDownLatch(1);
+		long scheduled = System.nanoTime();
+		long[] at = new long[1];
+		wheel.schedule(() -> {
+			at[0] = System.nanoTime();
+			ran.countDown();
+		}, 100);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(at[0] - scheduled) >= 100);
+	}
+
+	@Test
+	public void zeroOrNegativeDelayRunsAtNextTick() throws InterruptedException {
+		wheel = new TimingWheel(5, 64);
+		CountDownLatch ran = new CountDownLatch(2);
+		wheel.schedule(ran::countDown, 0);
+		wheel.schedule(ran::countDown, -100);
+		assertTrue(ran.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void failingTaskDoesNotStopTheWheel() throws InterruptedException {
+		wheel = new TimingWheel(5, 64);
+		CountDownLatch ran = new CountDownLatch(1);
+		wheel.schedule(() -> {
+			throw new IllegalStateException("bad task");
+		}, 10);
+		wheel.schedule(ran::countDown, 30);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertEquals(2, wheel.getFired());
+	}
+
+	@Test
+	public void shutdownDropsWaitingTasks() throws InterruptedException {
+		wheel = new TimingWheel(5, 64);
+		CountDownLatch ran = new CountDownLatch(1);
+		wheel.schedule(ran::countDown, 200);
+		wheel.shutdown();
+		assertFalse(ran.await(400, TimeUnit.MILLISECONDS));
+		assertEquals(1, wheel.getPending());
+		assertEquals(0, wheel.getFired());
+	}
+
+	@Test
+	public void wheelSizeRoundsUpToPowerOfTwo() {
+		wheel = new TimingWheel(5, 100);
+		assertTrue(wheel.toString(), wheel.toString().startsWith("buckets=128 "));
+	}
+}